@@ -0,0 +1,88 @@
+/**
+ * @author Ben
+ * The one left out accuracy achieved by one i/method/dimension subset configuration.
+ */
+public class AccuracyResult {
+
+	//KNN-i
+	private int i;
+	
+	//1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	private int method;
+	
+	//The dimensions included. Bit n set means dimension n is included
+	private long mask;
+	
+	//Number of dimensions in the test set
+	private int noDimensions;
+	
+	//Percentage of samples classified correctly
+	private double accuracy;
+	
+	public AccuracyResult(int i, int method, long mask, int noDimensions, double accuracy){
+		this.i = i;
+		this.method = method;
+		this.mask = mask;
+		this.noDimensions = noDimensions;
+		this.accuracy = accuracy;
+	}
+	
+	public int getI(){
+		return i;
+	}
+	
+	public int getMethod(){
+		return method;
+	}
+	
+	public long getMask(){
+		return mask;
+	}
+	
+	/**
+	 * Returns the position of the subset when subsets are numbered by binary counting with the first 
+	 * dimension as the most significant bit (1 is only the last dimension, 2^n - 1 is every dimension).
+	 * Used to order results the same way whatever order the subsets were searched in.
+	 * @return Index of the subset
+	 */
+	public long getSubsetIndex(){
+		return Long.reverse(mask) >>> (64 - noDimensions);
+	}
+	
+	public boolean[] getDimensions(){
+		return maskDimensions(mask, noDimensions);
+	}
+	
+	public double getAccuracy(){
+		return accuracy;
+	}
+	
+	/**
+	 * Returns the dimensions in the subset as a String. e.g. "Dimensions: Mean Depth/SD Temp/"
+	 * @return List of the included dimensions
+	 */
+	public String getDimensionNames(){
+		String names = "Dimensions: ";
+		
+		for(int x = 0; x < noDimensions; x++)
+			if((mask & (1L << x)) != 0)
+				names += FeatureMatrix.dimensionName(x) + "/";
+		
+		return names;
+	}
+	
+	/**
+	 * Returns the dimensions included in a subset
+	 * @param mask Bit n set means dimension n is included
+	 * @param noDimensions Number of dimensions in the test set
+	 * @return A true value indicates this dimension is included
+	 */
+	public static boolean[] maskDimensions(long mask, int noDimensions){
+		boolean[] dimensions = new boolean[noDimensions];
+		
+		for(int x = 0; x < noDimensions; x++)
+			dimensions[x] = (mask & (1L << x)) != 0;
+		
+		return dimensions;
+	}
+}
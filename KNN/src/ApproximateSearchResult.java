@@ -0,0 +1,57 @@
+/**
+ * @author Ben
+ * The one left out accuracy of one i/method/dimension subset configuration when the neighbours are found by
+ * approximate search (LSHIndex), compared with finding the exact neighbours. getAccuracy is the accuracy
+ * of the approximate search.
+ */
+public class ApproximateSearchResult extends AccuracyResult {
+
+	//Percentage of samples classified correctly with the exact neighbours
+	private double exactAccuracy;
+
+	//Percentage of samples given the same classification by both searches
+	private double agreement;
+
+	//Mean number of rows the approximate search checked for each sample
+	private double rowsChecked;
+
+	//Time taken classifying every sample by each search (ms)
+	private double exactTime;
+	private double approximateTime;
+
+	public ApproximateSearchResult(int i, int method, long mask, int noDimensions, double accuracy, double exactAccuracy,
+			double agreement, double rowsChecked, double exactTime, double approximateTime){
+		super(i, method, mask, noDimensions, accuracy);
+		this.exactAccuracy = exactAccuracy;
+		this.agreement = agreement;
+		this.rowsChecked = rowsChecked;
+		this.exactTime = exactTime;
+		this.approximateTime = approximateTime;
+	}
+
+	public double getExactAccuracy(){
+		return exactAccuracy;
+	}
+
+	public double getAgreement(){
+		return agreement;
+	}
+
+	public double getRowsChecked(){
+		return rowsChecked;
+	}
+
+	public double getExactTime(){
+		return exactTime;
+	}
+
+	public double getApproximateTime(){
+		return approximateTime;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("Approximate accuracy: %.2f%%, exact accuracy: %.2f%%, agreement: %.2f%%, %.1f rows checked per sample, %.1f ms (exact %.1f ms)",
+				getAccuracy(), exactAccuracy, agreement, rowsChecked, approximateTime, exactTime);
+	}
+}
@@ -1,3 +1,4 @@
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 
 
@@ -116,4 +117,93 @@ public abstract class ArrayListMath {
 			return new ArrayList<Double>();
 		}
 	}
+	
+	/**Returns the mean of the first size values stored in the double[] passed into the method
+	 * @param values A column of a FeatureMatrix
+	 * @param size The number of values to include
+	 * @return The mean of the values
+	 */
+	public static double mean(double[] values, int size){
+		double total = 0;
+		
+		if(size != 0){
+			for(int x = 0; x < size; x++)
+				total += values[x];
+		
+			return total/size;	
+		}else{
+			System.out.println("Array size is 0. Mean could not be calculated");
+			return 0;
+		}
+	}
+	
+	/**Returns the standard deviation of the first size values stored in the double[] passed into the method
+	 * @param values A column of a FeatureMatrix
+	 * @param size The number of values to include
+	 * @param mean The mean of the values
+	 * @return The standard deviation of the values
+	 */
+	public static double standardDeviation(double[] values, int size, double mean){
+		if(size != 0){
+		
+			//Total of (x - Mean)^2
+			double total = 0;
+			
+			for(int x = 0; x < size; x++)
+				total += Math.pow(values[x] - mean, 2);
+			
+			return Math.sqrt(total / (size - 1));	
+		}else{
+			System.out.println("Array size is 0. SD could not be calculated");
+			return 0;
+		}
+	}
+	
+	/**Returns a new double[] holding the standardised scores of the first size values
+	 * of the double[] passed in. ((x - mean) / sd).
+	 * Does not alter the double[] passed in
+	 * @param values A column of a FeatureMatrix
+	 * @param size The number of values to standardise
+	 * @param mean The mean of the values passed in
+	 * @param sd The standard deviation of the values passed in
+	 * @return A double[] of standardised values
+	 */
+	public static double[] scaleDataByStandardScore(double[] values, int size, double mean, double sd){
+		double[] standValues = new double[size];
+		
+		for(int x = 0; x < size; x++)
+			standValues[x] = (values[x] - mean) / sd;
+		
+		return standValues;
+	}
+	
+	/**Returns a new double[] holding the standardised scores of the first size values
+	 * of the DoubleBuffer passed in (Read with absolute gets from index 0). ((x - mean) / sd).
+	 * @param values A column of a FeatureMatrix
+	 * @param size The number of values to standardise
+	 * @param mean The mean of the values passed in
+	 * @param sd The standard deviation of the values passed in
+	 * @return A double[] of standardised values
+	 */
+	public static double[] scaleDataByStandardScore(DoubleBuffer values, int size, double mean, double sd){
+		double[] standValues = new double[size];
+		
+		for(int x = 0; x < size; x++)
+			standValues[x] = (values.get(x) - mean) / sd;
+		
+		return standValues;
+	}
+	
+	/**Writes the standardised scores of the first size values of the double[] passed in
+	 * into the double[] given. ((x - mean) / sd). Nothing is allocated.
+	 * @param values A column of a FeatureMatrix
+	 * @param size The number of values to standardise
+	 * @param mean The mean of the values passed in
+	 * @param sd The standard deviation of the values passed in
+	 * @param standValues The double[] the standardised values are written to
+	 */
+	public static void scaleDataByStandardScore(double[] values, int size, double mean, double sd, double[] standValues){
+		for(int x = 0; x < size; x++)
+			standValues[x] = (values[x] - mean) / sd;
+	}
 }
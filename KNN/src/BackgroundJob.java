@@ -0,0 +1,117 @@
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+/**
+ * @author Ben
+ * Runs a slow calculation for the GUI off the event thread, so the window stays responsive.
+ * Requests made in quick succession are merged into one run of the latest request, and a run
+ * that is still going when a newer request starts is cancelled. Only the result of the latest
+ * request is shown. All methods must be called on the event thread.
+ * @param <T> The type of the result
+ */
+public abstract class BackgroundJob<T> {
+
+	//How long to wait after a request for another one before starting (ms)
+	private static final int COALESCE_DELAY = 150;
+
+	//Starts the latest request once requests stop arriving
+	private Timer timer;
+
+	//The run in progress, null if none
+	private SwingWorker<T, Void> worker;
+
+	public BackgroundJob(){
+		timer = new Timer(COALESCE_DELAY, new ActionListener(){
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				start();
+			}
+		});
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Ask for the calculation to be run with the GUI's current settings. If more requests follow
+	 * straight away only the last one is run.
+	 */
+	public void request(){
+		timer.restart();
+		busy(true);
+	}
+
+	/**
+	 * Cancel the run in progress and start a new one with the GUI's current settings
+	 */
+	private void start(){
+		//Cleared first, as cancelling can call done() straight away
+		SwingWorker<T, Void> stale = worker;
+		worker = null;
+		if(stale != null)
+			stale.cancel(true);
+
+		//Read the settings now, on the event thread
+		final Callable<T> calculation = prepare();
+
+		worker = new SwingWorker<T, Void>(){
+			@Override
+			protected T doInBackground() throws Exception {
+				return calculation.call();
+			}
+
+			@Override
+			protected void done() {
+				//A newer run has replaced this one, its result is no longer wanted
+				if(worker != this)
+					return;
+
+				worker = null;
+				if(!timer.isRunning())
+					busy(false);
+
+				if(isCancelled())
+					return;
+
+				try {
+					finished(get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					failed(e.getCause());
+				}
+			}
+		};
+		worker.execute();
+	}
+
+	/**
+	 * Called on the event thread when a run is about to start. Should read everything the calculation
+	 * needs from the GUI and return the calculation, which is then run on a background thread.
+	 * @return The calculation to run
+	 */
+	protected abstract Callable<T> prepare();
+
+	/**
+	 * Called on the event thread with the result of the latest request
+	 * @param result The result of the calculation
+	 */
+	protected abstract void finished(T result);
+
+	/**
+	 * Called on the event thread when the busy state changes, to show or hide progress
+	 * @param busy true while a request is waiting or running
+	 */
+	protected abstract void busy(boolean busy);
+
+	/**
+	 * Called on the event thread if the latest calculation failed. Prints the error by default
+	 * @param error What went wrong
+	 */
+	protected void failed(Throwable error){
+		error.printStackTrace();
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * @author Ben
+ * A ball tree over the rows of a standardised test set. Each node holds the centre of its rows and
+ * the radius of a ball containing them all, so a whole node can be skipped when the ball is further
+ * from the sample than the ith nearest neighbour found so far. Copes better than a k-d tree when
+ * many dimensions are included.
+ * The balls stay in the standardised units the tree was built with. When rows are added and the test
+ * set is re-standardised, samples are converted back to those units, and how far a ball can be is scaled
+ * down by the most any dimension has shrunk, so no node is skipped that could hold a nearer row.
+ */
+public class BallTree implements NeighbourIndex {
+
+	//Most rows held by a leaf. Below this scanning the rows is quicker than splitting further
+	private static final int LEAF_SIZE = 16;
+	
+	/*Allowance for rounding when comparing distances found by the triangle inequality. Nodes are only
+	 * skipped when they are clearly too far away, so the same neighbours are found as by a scan. Used as
+	 * an absolute allowance too, as converting samples to the built units rounds even when the ith
+	 * nearest is 0 away (A duplicate row with a lower index must still be found) */
+	private static final double ROUNDING_ALLOWANCE = 1e-9;
+	
+	//The standardised test set, indexed [dimension][row], and the dimensions included
+	private double[][] testSet;
+	private int[] dimensions;
+	
+	//Test set indexes, grouped so each node holds a continuous range (Only used while building)
+	private int[] rows;
+	
+	private Node root;
+	
+	//Number of rows the tree was built over, and the number it holds now
+	private int builtSize;
+	private int size;
+	
+	//Mean and SD of each dimension the test set was standardised with when the tree was built
+	private double[] builtMean;
+	private double[] builtSD;
+	
+	/*A standardised value now is converted to the units the tree was built in by value * scale + shift.
+	 * Distances now are at least minScale times the distance in those units */
+	private double[] scale;
+	private double[] shift;
+	private double minScale = 1;
+	
+	//Whether the test set has been re-standardised since the tree was built
+	private boolean rescaled = false;
+	
+	/**
+	 * Build a tree over the first size rows of the test set
+	 * @param testSet The standardised test set, indexed [dimension][row]
+	 * @param size Number of rows in the test set
+	 * @param dimensions The dimensions included, in ascending order
+	 * @param mean The mean of each dimension the test set was standardised with
+	 * @param sd The standard deviation of each dimension the test set was standardised with
+	 */
+	public BallTree(double[][] testSet, int size, int[] dimensions, double[] mean, double[] sd){
+		this.testSet = testSet;
+		this.dimensions = dimensions.clone();
+		
+		rows = new int[size];
+		for(int y = 0; y < size; y++)
+			rows[y] = y;
+		
+		root = build(0, size);
+		
+		builtSize = size;
+		this.size = size;
+		rows = null;
+		
+		builtMean = mean.clone();
+		builtSD = sd.clone();
+		scale = new double[testSet.length];
+		shift = new double[testSet.length];
+		for(int d = 0; d < testSet.length; d++)
+			scale[d] = 1;
+	}
+	
+	private Node build(int start, int end){
+		Node node = new Node();
+		
+		//Centre of the ball is the mean of its rows (Indexed by dimension like a sample)
+		node.centre = new double[testSet.length];
+		for(int d : dimensions){
+			double total = 0;
+			for(int x = start; x < end; x++)
+				total += testSet[d][rows[x]];
+			node.centre[d] = total / (end - start);
+		}
+		
+		//Radius reaches the furthest row
+		for(int x = start; x < end; x++)
+			node.radius = Math.max(node.radius, Math.sqrt(IndexMath.distance(testSet, dimensions, node.centre, rows[x])));
+		
+		if(end - start <= LEAF_SIZE || node.radius == 0){
+			//Leaf, holding its rows
+			node.count = end - start;
+			node.rows = new int[Math.max(1, node.count)];
+			System.arraycopy(rows, start, node.rows, 0, node.count);
+			return node;
+		}
+		
+		//Split in half on the dimension the rows are most spread out in
+		int splitDimension = dimensions[0];
+		double widest = -1;
+		for(int d : dimensions){
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for(int x = start; x < end; x++){
+				min = Math.min(min, testSet[d][rows[x]]);
+				max = Math.max(max, testSet[d][rows[x]]);
+			}
+			if(max - min > widest){
+				widest = max - min;
+				splitDimension = d;
+			}
+		}
+		
+		int middle = (start + end) / 2;
+		IndexMath.select(rows, start, end, middle, testSet[splitDimension]);
+		
+		node.left = build(start, middle);
+		node.right = build(middle, end);
+		
+		return node;
+	}
+	
+	@Override
+	public void findNeighbours(double[] sample, NeighbourCandidates candidates){
+		//The sample in the units the balls are in
+		double[] built = toBuiltUnits(sample);
+		
+		search(root, sample, built, candidates, Math.sqrt(IndexMath.distance(dimensions, built, root.centre)));
+	}
+	
+	/**
+	 * @param built The sample in the units the tree was built in
+	 * @param centreDistance Distance from the sample to the centre of this node (In the units the tree was built in)
+	 */
+	private void search(Node node, double[] sample, double[] built, NeighbourCandidates candidates, double centreDistance){
+		//Skip the node if every row in the ball is further than the ith nearest so far
+		double nearest = (centreDistance - node.radius) * minScale;
+		if(nearest > 0 && nearest > Math.sqrt(candidates.worstDistance()) * (1 + ROUNDING_ALLOWANCE) + ROUNDING_ALLOWANCE)
+			return;
+		
+		if(node.left == null){
+			//Leaf, check every row
+			for(int x = 0; x < node.count; x++)
+				candidates.offer(IndexMath.distance(testSet, dimensions, sample, node.rows[x]), node.rows[x]);
+			return;
+		}
+		
+		double leftDistance = Math.sqrt(IndexMath.distance(dimensions, built, node.left.centre));
+		double rightDistance = Math.sqrt(IndexMath.distance(dimensions, built, node.right.centre));
+		
+		//Search the nearer ball first, so the further one is more likely to be skipped
+		if(leftDistance <= rightDistance){
+			search(node.left, sample, built, candidates, leftDistance);
+			search(node.right, sample, built, candidates, rightDistance);
+		}else{
+			search(node.right, sample, built, candidates, rightDistance);
+			search(node.left, sample, built, candidates, leftDistance);
+		}
+	}
+	
+	/**
+	 * Returns the standardised values given in the units the tree was built in (The same array if they have not changed)
+	 */
+	private double[] toBuiltUnits(double[] sample){
+		if(!rescaled)
+			return sample;
+		
+		double[] built = new double[sample.length];
+		for(int d : dimensions)
+			built[d] = sample[d] * scale[d] + shift[d];
+		return built;
+	}
+	
+	@Override
+	public boolean addRows(double[][] testSet, int size, double[] mean, double[] sd){
+		this.testSet = testSet;
+		rescaled = true;
+		
+		//(x - mean) / sd = ((x - builtMean) / builtSD) * (builtSD / sd) + (builtMean - mean) / sd, so undo that
+		minScale = Double.POSITIVE_INFINITY;
+		for(int d : dimensions){
+			scale[d] = sd[d] / builtSD[d];
+			shift[d] = (mean[d] - builtMean[d]) / builtSD[d];
+			minScale = Math.min(minScale, builtSD[d] / sd[d]);
+		}
+		
+		double[] row = new double[testSet.length];
+		for(int y = this.size; y < size; y++){
+			for(int d : dimensions)
+				row[d] = testSet[d][y];
+			add(y, toBuiltUnits(row));
+		}
+		this.size = size;
+		
+		//Balls only grow, so searches slow down once the tree holds many more rows than it was built over
+		return size <= builtSize * 2;
+	}
+	
+	/**
+	 * Add a row to the leaf reached by following the nearer centre, growing every ball on the way to reach it
+	 * @param row The test set index of the row
+	 * @param built The row's values in the units the tree was built in
+	 */
+	private void add(int row, double[] built){
+		Node node = root;
+		
+		while(true){
+			node.radius = Math.max(node.radius, Math.sqrt(IndexMath.distance(dimensions, built, node.centre)));
+			
+			if(node.left == null)
+				break;
+			
+			if(IndexMath.distance(dimensions, built, node.left.centre) <= IndexMath.distance(dimensions, built, node.right.centre))
+				node = node.left;
+			else
+				node = node.right;
+		}
+		
+		if(node.count == node.rows.length){
+			int[] longer = new int[node.rows.length * 2];
+			System.arraycopy(node.rows, 0, longer, 0, node.count);
+			node.rows = longer;
+		}
+		node.rows[node.count++] = row;
+	}
+	
+	/**
+	 * @author Ben
+	 * A set of rows inside a ball. Leaves hold the rows and have no children, other nodes split their rows between two children.
+	 */
+	private static class Node{
+		//Rows held by a leaf (Only the first count are used)
+		int[] rows;
+		int count;
+		
+		double[] centre;
+		double radius;
+		
+		Node left;
+		Node right;
+	}
+}
@@ -0,0 +1,107 @@
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author Ben
+ * Maps each classification label (e.g. S, T, U, V, TX) to a dense class id (0, 1, 2...) in the order the
+ * labels are first seen, so classifications can be stored, counted and compared as ints. Any number of
+ * classifications can be held. Labels are only ever added, so a class id never changes, and one dictionary
+ * can be shared by a test set and the larger test sets made from it. Can be read by any number of threads
+ * while labels are added.
+ */
+public class ClassDictionary {
+
+	//Labels in class id order. Replaced (Not changed) when a label is added, so it can be read without locking
+	private volatile String[] labels = new String[0];
+
+	//Class id of each label
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+	public ClassDictionary(){
+	}
+
+	/**
+	 * Creates a dictionary holding the labels given, in class id order
+	 * @param labels The labels
+	 */
+	public ClassDictionary(String... labels){
+		for(String label : labels)
+			add(label);
+	}
+
+	/**
+	 * Returns the class id of a label, adding it to the dictionary if it is not already held
+	 * @param label The classification label
+	 * @return The class id
+	 */
+	public synchronized int add(String label){
+		Integer id = ids.get(label);
+		if(id != null)
+			return id;
+
+		String[] grown = new String[labels.length + 1];
+		System.arraycopy(labels, 0, grown, 0, labels.length);
+		grown[labels.length] = label;
+
+		ids.put(label, labels.length);
+		labels = grown;
+		return grown.length - 1;
+	}
+
+	/**
+	 * Adds new labels, giving them the class ids firstId, firstId + 1... in order, if the dictionary still
+	 * holds exactly firstId labels. Nothing is added otherwise (Another label was added in the meantime).
+	 * @param newLabels Labels not already held, in the order they should be given ids
+	 * @param firstId The class id the first label should be given
+	 * @return true if the labels were added
+	 */
+	public synchronized boolean addAll(List<String> newLabels, int firstId){
+		if(labels.length != firstId)
+			return false;
+
+		String[] grown = new String[labels.length + newLabels.size()];
+		System.arraycopy(labels, 0, grown, 0, labels.length);
+		for(int x = 0; x < newLabels.size(); x++){
+			grown[firstId + x] = newLabels.get(x);
+			ids.put(newLabels.get(x), firstId + x);
+		}
+
+		labels = grown;
+		return true;
+	}
+
+	/**
+	 * Returns the class id of a label
+	 * @param label The classification label
+	 * @return The class id. -1 if the label is not held
+	 */
+	public synchronized int idOf(String label){
+		Integer id = ids.get(label);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the label of a class id
+	 * @param id The class id
+	 * @return The label. null if the id is -1 (No classification)
+	 */
+	public String label(int id){
+		return id < 0 ? null : labels[id];
+	}
+
+	/**
+	 * Returns the number of classifications held. Class ids are 0 to size() - 1
+	 * @return The number of classifications
+	 */
+	public int size(){
+		return labels.length;
+	}
+
+	/**
+	 * Returns every label, in class id order
+	 * @return A copy of the labels
+	 */
+	public String[] getLabels(){
+		return labels.clone();
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * @author Ben
+ * Running mean and sum of squared differences from the mean (M2) for each dimension of a
+ * FeatureMatrix. The mean/SD of the matrix with one row left out can be found in O(1) per
+ * dimension by a Welford downdate, rather than rescanning every value.
+ */
+public class ColumnStats {
+
+	//Number of rows the statistics describe
+	private int count;
+
+	//Mean of each dimension
+	private double[] mean;
+
+	//Sum of (x - mean)^2 of each dimension
+	private double[] m2;
+
+	/**
+	 * Calculates the statistics of every row in the matrix passed in.
+	 * @param matrix The values to describe
+	 */
+	public ColumnStats(FeatureMatrix matrix){
+		int noDimensions = matrix.getNoDimensions();
+
+		count = matrix.size();
+		mean = new double[noDimensions];
+		m2 = new double[noDimensions];
+
+		for(int x = 0; x < noDimensions; x++){
+			double[] column = matrix.getColumn(x);
+
+			//Two passes, so the full set values match ArrayListMath exactly
+			mean[x] = ArrayListMath.mean(column, count);
+
+			double total = 0;
+			for(int y = 0; y < count; y++)
+				total += Math.pow(column[y] - mean[x], 2);
+			m2[x] = total;
+		}
+	}
+
+	/**
+	 * Uses statistics that have already been calculated (e.g. stored with the data)
+	 * @param count Number of rows the statistics describe
+	 * @param mean Mean of each dimension
+	 * @param m2 Sum of (x - mean)^2 of each dimension
+	 */
+	public ColumnStats(int count, double[] mean, double[] m2){
+		this.count = count;
+		this.mean = mean.clone();
+		this.m2 = m2.clone();
+	}
+
+	/**
+	 * Returns the statistics of the rows described by these statistics and the ones passed in
+	 * together (Chan et al. parallel combination). Neither is altered.
+	 * @param other Statistics of other rows, with the same number of dimensions
+	 * @return The statistics of all the rows
+	 */
+	public ColumnStats combine(ColumnStats other){
+		if(other.count == 0)
+			return this;
+		if(count == 0)
+			return other;
+
+		int total = count + other.count;
+		double[] newMean = new double[mean.length];
+		double[] newM2 = new double[mean.length];
+
+		for(int x = 0; x < mean.length; x++){
+			double delta = other.mean[x] - mean[x];
+			newMean[x] = mean[x] + delta * other.count / total;
+			newM2[x] = m2[x] + other.m2[x] + delta * delta * ((double) count * other.count / total);
+		}
+
+		return new ColumnStats(total, newMean, newM2);
+	}
+
+	/**
+	 * Returns these statistics with another row added (Welford's method). These statistics are not altered.
+	 * @param row The value of each dimension of the row
+	 * @return The statistics including the row
+	 */
+	public ColumnStats add(double[] row){
+		int newCount = count + 1;
+		double[] newMean = new double[mean.length];
+		double[] newM2 = new double[mean.length];
+
+		for(int x = 0; x < mean.length; x++){
+			double delta = row[x] - mean[x];
+			newMean[x] = mean[x] + delta / newCount;
+			newM2[x] = m2[x] + delta * (row[x] - newMean[x]);
+		}
+
+		return new ColumnStats(newCount, newMean, newM2);
+	}
+
+	public int getCount(){
+		return count;
+	}
+
+	public double getMean(int dimension){
+		return mean[dimension];
+	}
+
+	/**
+	 * Returns the sum of (x - mean)^2 of the dimension
+	 * @param dimension The dimension
+	 * @return M2 of the dimension
+	 */
+	public double getM2(int dimension){
+		return m2[dimension];
+	}
+
+	/**
+	 * Returns the (sample) standard deviation of the dimension
+	 * @param dimension The dimension
+	 * @return The standard deviation
+	 */
+	public double getSD(int dimension){
+		return Math.sqrt(m2[dimension] / (count - 1));
+	}
+
+	/**
+	 * Returns the mean of the dimension if the value passed in were removed.
+	 * Does not alter these statistics.
+	 * @param dimension The dimension
+	 * @param value The value being left out
+	 * @return The mean without the value
+	 */
+	public double meanWithout(int dimension, double value){
+		return mean[dimension] - (value - mean[dimension]) / (count - 1);
+	}
+
+	/**
+	 * Returns the standard deviation of the dimension if the value passed in were removed (Welford downdate).
+	 * Does not alter these statistics.
+	 * @param dimension The dimension
+	 * @param value The value being left out
+	 * @return The standard deviation without the value
+	 */
+	public double sdWithout(int dimension, double value){
+		double newMean = meanWithout(dimension, value);
+
+		//M2 with the value removed. Can drift slightly below 0 when every other value is equal
+		double newM2 = m2[dimension] - (value - mean[dimension]) * (value - newMean);
+		if(newM2 < 0)
+			newM2 = 0;
+
+		return Math.sqrt(newM2 / (count - 2));
+	}
+}
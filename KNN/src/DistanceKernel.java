@@ -0,0 +1,533 @@
+/**
+ * @author Ben
+ * Works out the distance between a sample and rows of the test set for one distance metric. Kernels work
+ * on packed dimensions: position k of the columns, sample, centre and scale passed in holds the kth
+ * dimension included (In ascending order), so no dimensions are skipped inside the loops.
+ *
+ * The difference in each dimension is (sample - value) * scale, so the test set can be standardised in
+ * advance (scale of 1) or on the fly (scale of 1/SD). Distances of a block of rows are worked out a column
+ * at a time (Every row's distance in one dimension, then the next) in plain loops over arrays, which HotSpot's
+ * auto-vectoriser may compile to SIMD instructions. There is no separate SIMD code. Each kernel is immutable,
+ * so can be shared by any number of threads.
+ */
+public abstract class DistanceKernel {
+
+	//Distance metrics
+	public static final int SQUARED_EUCLIDEAN = 0;
+	public static final int MANHATTAN = 1;
+	public static final int CHEBYSHEV = 2;
+	public static final int WEIGHTED_EUCLIDEAN = 3;
+	public static final int COSINE = 4;
+
+	//Names of the metrics, in metric order
+	public static final String[] METRIC_NAMES = {"Squared Euclidean", "Manhattan", "Chebyshev", "Weighted Euclidean", "Cosine"};
+
+	/*Partial distances summed in a different order to distances() can round slightly differently. A row is only
+	 * abandoned once its partial distance is beyond the bound by more than any rounding could account for*/
+	private static final double ABANDON_MARGIN = 1 + 1e-12;
+
+	//Number of dimensions added to the rows left before the rows that cannot be nearer are dropped
+	private static final int ABANDON_STEP = 2;
+
+	private final int metric;
+
+	private DistanceKernel(int metric){
+		this.metric = metric;
+	}
+
+	/**
+	 * Returns the kernel for a distance metric
+	 * @param metric The metric: 0-Squared Euclidean, 1-Manhattan, 2-Chebyshev, 3-Weighted Euclidean, 4-Cosine
+	 * @param weights The weight of each dimension for Weighted Euclidean (Ignored by the other metrics)
+	 * @return The kernel. null if the metric or weights are invalid
+	 */
+	public static DistanceKernel create(int metric, double[] weights){
+		switch(metric){
+		case SQUARED_EUCLIDEAN: return new SquaredEuclidean(SQUARED_EUCLIDEAN);
+		case MANHATTAN: return new Manhattan();
+		case CHEBYSHEV: return new Chebyshev();
+		case COSINE: return new Cosine();
+		case WEIGHTED_EUCLIDEAN:
+			if(weights == null){
+				System.out.println("Weighted Euclidean distance needs a weight for each dimension");
+				return null;
+			}
+			for(double weight : weights)
+				if(!(weight >= 0) || Double.isInfinite(weight)){
+					System.out.println("Dimension weights must be positive numbers");
+					return null;
+				}
+			return new WeightedEuclidean(weights);
+		default:
+			System.out.println("Please enter a valid distance metric 0-4");
+			return null;
+		}
+	}
+
+	public int getMetric(){
+		return metric;
+	}
+
+	/**
+	 * Returns true if distances are the squared Euclidean distance between standardised points, as the
+	 * nearest neighbour indexes and the dimension subset search assume
+	 * @return Whether this is the plain squared Euclidean kernel
+	 */
+	public boolean isSquaredEuclidean(){
+		return metric == SQUARED_EUCLIDEAN;
+	}
+
+	/**
+	 * Returns the scale the difference in a dimension should be packed with
+	 * @param dimension The dimension (Unpacked)
+	 * @param scale The value the difference is multiplied by to standardise it
+	 * @return The scale to pack
+	 */
+	public double packScale(int dimension, double scale){
+		return scale;
+	}
+
+	/**
+	 * Work out the distance from the sample to each of a range of rows
+	 * @param columns The included columns of the test set, packed, each indexed by row
+	 * @param sample The sample, packed
+	 * @param centre The mean of each dimension, packed (Only used by Cosine, null if the test set is already centred)
+	 * @param scale The value each difference is multiplied by, packed
+	 * @param noIncluded Number of dimensions packed
+	 * @param from First row (inclusive)
+	 * @param to Last row (exclusive)
+	 * @param distances Where the distance to row y is stored, at y - from
+	 */
+	public abstract void distances(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded,
+								   int from, int to, double[] distances);
+
+	/**
+	 * Work out the distance from the sample to one row. The same as distances() gives for that row.
+	 * @return The distance
+	 */
+	public abstract double distance(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded, int row);
+
+	/**
+	 * Returns true if rows can be abandoned part way through with distancesWithin (The distance never gets
+	 * smaller as dimensions are added)
+	 * @return Whether distancesWithin abandons rows
+	 */
+	public boolean canAbandon(){
+		return false;
+	}
+
+	/**
+	 * Work out the distance from the sample to a range of rows, abandoning each row as soon as it cannot be
+	 * nearer than the bound. Dimensions are added ABANDON_STEP at a time in the order given (Largest expected
+	 * contribution first, so rows are abandoned early), and only to the rows not yet abandoned. Rows that are
+	 * never abandoned have their distance worked out again in dimension order, so it is exactly the distance
+	 * distances() gives.
+	 * @param columns The included columns of the test set, packed, each indexed by row
+	 * @param sample The sample, packed
+	 * @param centre The mean of each dimension, packed
+	 * @param scale The value each difference is multiplied by, packed
+	 * @param noIncluded Number of dimensions packed
+	 * @param order The packed dimensions in the order they are added
+	 * @param from First row (inclusive)
+	 * @param to Last row (exclusive)
+	 * @param bound Rows this distance away or further are not wanted
+	 * @param distances Where the distance of each row kept is stored
+	 * @param rows Where each row kept is stored, in ascending order
+	 * @return The number of rows kept. Every row not kept is at least the bound away
+	 */
+	public int distancesWithin(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded,
+							   int[] order, int from, int to, double bound, double[] distances, int[] rows){
+		if(!canAbandon()){
+			distances(columns, sample, centre, scale, noIncluded, from, to, distances);
+			for(int y = from; y < to; y++)
+				rows[y - from] = y;
+			return to - from;
+		}
+
+		double limit = abandonLimit(bound);
+		int count = to - from;
+
+		/*Dimensions are added to every row while most are still within the limit, as reading the columns
+		 * straight through is quicker than picking out the rows kept*/
+		for(int j = 0; j < count; j++)
+			distances[j] = 0;
+		int k = 0;
+		while(true){
+			int end = Math.min(noIncluded, k + ABANDON_STEP);
+			for(; k < end; k++)
+				accumulate(columns[order[k]], sample[order[k]], scale[order[k]], from, count, distances);
+
+			int within = 0;
+			for(int j = 0; j < count; j++)
+				within += distances[j] > limit ? 0 : 1;
+
+			if(within <= count / 2)
+				break;
+
+			//Too few rows abandoned (e.g. the bound is still loose) to be worth carrying on, so do the lot
+			if(k * 2 >= noIncluded){
+				distances(columns, sample, centre, scale, noIncluded, from, to, distances);
+				for(int j = 0; j < count; j++)
+					rows[j] = from + j;
+				return count;
+			}
+		}
+
+		//Keep the rows still within the limit, in order
+		int kept = 0;
+		for(int j = 0; j < count; j++){
+			//Written either way, but only kept if within the limit (Avoids a branch that is hard to predict)
+			double distance = distances[j];
+			rows[kept] = from + j;
+			distances[kept] = distance;
+			kept += distance > limit ? 0 : 1;
+		}
+
+		//The rest of the dimensions are only added to the rows kept
+		while(k < noIncluded && kept > 0){
+			int end = Math.min(noIncluded, k + ABANDON_STEP);
+			for(; k < end; k++)
+				accumulate(columns[order[k]], sample[order[k]], scale[order[k]], rows, kept, distances);
+
+			int alive = kept;
+			kept = 0;
+			for(int j = 0; j < alive; j++){
+				double distance = distances[j];
+				rows[kept] = rows[j];
+				distances[kept] = distance;
+				kept += distance > limit ? 0 : 1;
+			}
+		}
+
+		//Summed in a different order, so worked out again in dimension order
+		if(!orderIndependent())
+			for(int j = 0; j < kept; j++)
+				distances[j] = distance(columns, sample, centre, scale, noIncluded, rows[j]);
+
+		return kept;
+	}
+
+	/**
+	 * Returns the largest partial distance a row can have without being abandoned
+	 * @param bound Rows this distance away or further are not wanted
+	 */
+	double abandonLimit(double bound){
+		//Partial distances summed in a different order can round slightly differently
+		return bound * ABANDON_MARGIN;
+	}
+
+	/**
+	 * Returns true if the distance is the same whatever order the dimensions are added in, so does not need
+	 * to be worked out again
+	 */
+	boolean orderIndependent(){
+		return false;
+	}
+
+	/**
+	 * Add one dimension to the partial distances of a range of rows
+	 * @param column The test set column of the dimension
+	 * @param s The sample's value in the dimension
+	 * @param c The scale of the dimension
+	 * @param from First row
+	 * @param count Number of rows
+	 * @param partial The partial distance of each row, indexed from 0
+	 */
+	void accumulate(double[] column, double s, double c, int from, int count, double[] partial){
+	}
+
+	/**
+	 * Add one dimension to the partial distances of the rows given
+	 * @param column The test set column of the dimension
+	 * @param s The sample's value in the dimension
+	 * @param c The scale of the dimension
+	 * @param rows The rows
+	 * @param count Number of rows
+	 * @param partial The partial distance of each row, in the same order
+	 */
+	void accumulate(double[] column, double s, double c, int[] rows, int count, double[] partial){
+	}
+
+	/**
+	 * @author Ben
+	 * Sum of the squared differences, summed in dimension order (So distances and ties are exactly those of the
+	 * original scan). Two columns are added on each pass over the rows, halving the passes over the distances.
+	 */
+	private static class SquaredEuclidean extends DistanceKernel {
+
+		SquaredEuclidean(int metric){
+			super(metric);
+		}
+
+		@Override
+		public void distances(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded,
+							  int from, int to, double[] distances){
+			int count = to - from;
+
+			if(noIncluded == 0){
+				for(int y = 0; y < count; y++)
+					distances[y] = 0;
+				return;
+			}
+
+			//First dimension sets the distances (0 + d^2 = d^2)
+			double[] column = columns[0];
+			double s = sample[0];
+			double c = scale[0];
+			for(int y = 0; y < count; y++){
+				double d = (s - column[from + y]) * c;
+				distances[y] = d * d;
+			}
+
+			int k = 1;
+			for(; k + 1 < noIncluded; k += 2){
+				double[] columnA = columns[k];
+				double[] columnB = columns[k + 1];
+				double sA = sample[k];
+				double sB = sample[k + 1];
+				double cA = scale[k];
+				double cB = scale[k + 1];
+				for(int y = 0; y < count; y++){
+					double dA = (sA - columnA[from + y]) * cA;
+					double dB = (sB - columnB[from + y]) * cB;
+					distances[y] = distances[y] + dA * dA + dB * dB;
+				}
+			}
+
+			if(k < noIncluded){
+				column = columns[k];
+				s = sample[k];
+				c = scale[k];
+				for(int y = 0; y < count; y++){
+					double d = (s - column[from + y]) * c;
+					distances[y] += d * d;
+				}
+			}
+		}
+
+		@Override
+		public double distance(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded, int row){
+			double distance = 0;
+			for(int k = 0; k < noIncluded; k++){
+				double d = (sample[k] - columns[k][row]) * scale[k];
+				distance += d * d;
+			}
+			return distance;
+		}
+
+		@Override
+		public boolean canAbandon(){
+			return true;
+		}
+
+		@Override
+		void accumulate(double[] column, double s, double c, int from, int count, double[] partial){
+			for(int j = 0; j < count; j++){
+				double d = (s - column[from + j]) * c;
+				partial[j] += d * d;
+			}
+		}
+
+		@Override
+		void accumulate(double[] column, double s, double c, int[] rows, int count, double[] partial){
+			for(int j = 0; j < count; j++){
+				double d = (s - column[rows[j]]) * c;
+				partial[j] += d * d;
+			}
+		}
+	}
+
+	/**
+	 * @author Ben
+	 * Squared Euclidean distance with each dimension's squared difference multiplied by its weight. The
+	 * square root of each weight is packed into the scale, so the Squared Euclidean loops are used unchanged.
+	 */
+	private static class WeightedEuclidean extends SquaredEuclidean {
+		private final double[] weights;
+
+		WeightedEuclidean(double[] weights){
+			super(WEIGHTED_EUCLIDEAN);
+			this.weights = weights.clone();
+		}
+
+		@Override
+		public double packScale(int dimension, double scale){
+			return scale * Math.sqrt(dimension < weights.length ? weights[dimension] : 1);
+		}
+	}
+
+	/**
+	 * @author Ben
+	 * Sum of the absolute differences
+	 */
+	private static class Manhattan extends DistanceKernel {
+
+		Manhattan(){
+			super(MANHATTAN);
+		}
+
+		@Override
+		public void distances(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded,
+							  int from, int to, double[] distances){
+			int count = to - from;
+			for(int y = 0; y < count; y++)
+				distances[y] = 0;
+
+			for(int k = 0; k < noIncluded; k++){
+				double[] column = columns[k];
+				double s = sample[k];
+				double c = scale[k];
+				for(int y = 0; y < count; y++)
+					distances[y] += Math.abs((s - column[from + y]) * c);
+			}
+		}
+
+		@Override
+		public double distance(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded, int row){
+			double distance = 0;
+			for(int k = 0; k < noIncluded; k++)
+				distance += Math.abs((sample[k] - columns[k][row]) * scale[k]);
+			return distance;
+		}
+
+		@Override
+		public boolean canAbandon(){
+			return true;
+		}
+
+		@Override
+		void accumulate(double[] column, double s, double c, int from, int count, double[] partial){
+			for(int j = 0; j < count; j++)
+				partial[j] += Math.abs((s - column[from + j]) * c);
+		}
+
+		@Override
+		void accumulate(double[] column, double s, double c, int[] rows, int count, double[] partial){
+			for(int j = 0; j < count; j++)
+				partial[j] += Math.abs((s - column[rows[j]]) * c);
+		}
+	}
+
+	/**
+	 * @author Ben
+	 * Largest absolute difference in any dimension
+	 */
+	private static class Chebyshev extends DistanceKernel {
+
+		Chebyshev(){
+			super(CHEBYSHEV);
+		}
+
+		@Override
+		public void distances(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded,
+							  int from, int to, double[] distances){
+			int count = to - from;
+			for(int y = 0; y < count; y++)
+				distances[y] = 0;
+
+			for(int k = 0; k < noIncluded; k++){
+				double[] column = columns[k];
+				double s = sample[k];
+				double c = scale[k];
+				for(int y = 0; y < count; y++)
+					distances[y] = Math.max(distances[y], Math.abs((s - column[from + y]) * c));
+			}
+		}
+
+		@Override
+		public double distance(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded, int row){
+			double distance = 0;
+			for(int k = 0; k < noIncluded; k++)
+				distance = Math.max(distance, Math.abs((sample[k] - columns[k][row]) * scale[k]));
+			return distance;
+		}
+
+		@Override
+		public boolean canAbandon(){
+			return true;
+		}
+
+		@Override
+		double abandonLimit(double bound){
+			//The largest difference is exact whatever order the dimensions are checked in
+			return Math.nextAfter(bound, Double.NEGATIVE_INFINITY);
+		}
+
+		@Override
+		boolean orderIndependent(){
+			return true;
+		}
+
+		@Override
+		void accumulate(double[] column, double s, double c, int from, int count, double[] partial){
+			for(int j = 0; j < count; j++)
+				partial[j] = Math.max(partial[j], Math.abs((s - column[from + j]) * c));
+		}
+
+		@Override
+		void accumulate(double[] column, double s, double c, int[] rows, int count, double[] partial){
+			for(int j = 0; j < count; j++)
+				partial[j] = Math.max(partial[j], Math.abs((s - column[rows[j]]) * c));
+		}
+	}
+
+	/**
+	 * @author Ben
+	 * 1 - the cosine of the angle between the standardised sample and row (0 for the same direction, 2 for
+	 * opposite directions, 1 if either is at the mean). Worked out a row at a time, as the dot product and
+	 * both lengths are needed before the distance is known.
+	 */
+	private static class Cosine extends DistanceKernel {
+
+		Cosine(){
+			super(COSINE);
+		}
+
+		@Override
+		public void distances(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded,
+							  int from, int to, double[] distances){
+			//Length of the sample, which is the same for every row
+			double sampleLength = sampleLength(sample, centre, scale, noIncluded);
+
+			for(int y = from; y < to; y++)
+				distances[y - from] = distance(columns, sample, centre, scale, noIncluded, y, sampleLength);
+		}
+
+		@Override
+		public double distance(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded, int row){
+			return distance(columns, sample, centre, scale, noIncluded, row, sampleLength(sample, centre, scale, noIncluded));
+		}
+
+		/**
+		 * Returns the squared length of the standardised sample
+		 */
+		private static double sampleLength(double[] sample, double[] centre, double[] scale, int noIncluded){
+			double sampleLength = 0;
+			for(int k = 0; k < noIncluded; k++){
+				double a = (sample[k] - (centre == null ? 0 : centre[k])) * scale[k];
+				sampleLength += a * a;
+			}
+			return sampleLength;
+		}
+
+		/**
+		 * Returns the distance to one row, given the squared length of the sample
+		 */
+		private static double distance(double[][] columns, double[] sample, double[] centre, double[] scale, int noIncluded,
+									   int row, double sampleLength){
+			double dot = 0;
+			double rowLength = 0;
+			for(int k = 0; k < noIncluded; k++){
+				double m = centre == null ? 0 : centre[k];
+				double a = (sample[k] - m) * scale[k];
+				double b = (columns[k][row] - m) * scale[k];
+				dot += a * b;
+				rowLength += b * b;
+			}
+
+			if(sampleLength == 0 || rowLength == 0)
+				return 1;
+			return 1 - dot / Math.sqrt(sampleLength * rowLength);
+		}
+	}
+}
@@ -0,0 +1,304 @@
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author Ben
+ * Packed storage for the expert-classified test set. Each dimension is held in its own
+ * contiguous double[] (column-major) with the class id of each row held in an int[] alongside,
+ * so no Double objects are created or unboxed when the data is used. Classifications are held as class ids,
+ * with the label of each id held in the matrix's ClassDictionary.
+ * withRows() returns a longer matrix that shares the arrays where it can, leaving this one unchanged.
+ * The columns can instead be held in DoubleBuffers (e.g. mapped from a binary file), which are read in place.
+ * A buffered column is only copied into a double[] if getColumn() is asked for it.
+ */
+public class FeatureMatrix {
+
+	//Names of the dimensions in column order
+	public static final String[] DIMENSION_NAMES = {"Mean Depth", "Median Depth", "SD Depth", "IQR Depth",
+													"Mean Temp", "Median Temp", "SD Temp", "IQR Temp"};
+
+	//Initial number of rows allocated if no capacity is given
+	private static final int DEFAULT_CAPACITY = 64;
+
+	//Number of dimensions each row holds
+	private int noDimensions;
+
+	//Number of rows currently stored (Arrays may be longer than this)
+	private int size = 0;
+
+	//One array per dimension, indexed by row
+	private double[][] columns;
+
+	//The class id of each row (-1 if it has no classification)
+	private int[] classIds;
+
+	//Label of each class id. Shared with matrices made from this one by withRows
+	private ClassDictionary classes;
+
+	//Number of rows written to the arrays by any matrix sharing them. Rows past size can only be written by the matrix that claims them
+	private AtomicInteger filled;
+
+	//One buffer per dimension if the columns are held in buffers rather than arrays (null otherwise)
+	private DoubleBuffer[] buffers;
+
+	//Buffered columns copied into arrays by getColumn(), shared by matrices sharing the buffers
+	private AtomicReferenceArray<double[]> copies;
+
+	public FeatureMatrix(int noDimensions){
+		this(noDimensions, DEFAULT_CAPACITY);
+	}
+
+	public FeatureMatrix(int noDimensions, int capacity){
+		this(noDimensions, capacity, new ClassDictionary());
+	}
+
+	/**
+	 * @param noDimensions Number of dimensions each row holds
+	 * @param capacity Number of rows to allocate room for
+	 * @param classes The labels of the class ids the rows are given
+	 */
+	public FeatureMatrix(int noDimensions, int capacity, ClassDictionary classes){
+		this.noDimensions = noDimensions;
+		this.classes = classes;
+
+		if(capacity < 1)
+			capacity = 1;
+
+		columns = new double[noDimensions][capacity];
+		classIds = new int[capacity];
+		filled = new AtomicInteger(0);
+	}
+
+	/**
+	 * Wraps columns and class ids that have already been filled. The arrays are not copied.
+	 * @param columns One array per dimension, indexed by row
+	 * @param classIds The class id of each row
+	 * @param size Number of rows held in the arrays
+	 * @param classes The labels of the class ids
+	 */
+	public FeatureMatrix(double[][] columns, int[] classIds, int size, ClassDictionary classes){
+		this.noDimensions = columns.length;
+		this.columns = columns;
+		this.classIds = classIds;
+		this.classes = classes;
+		this.size = size;
+		filled = new AtomicInteger(size);
+	}
+
+	/**
+	 * Wraps columns held in buffers (e.g. mapped from a file). The buffers are read in place, not copied,
+	 * until rows are added or getColumn() is called.
+	 * @param buffers One buffer per dimension, indexed by row from 0 (Absolute gets are used, so the position does not matter)
+	 * @param classIds The class id of each row
+	 * @param size Number of rows held in the buffers
+	 * @param classes The labels of the class ids
+	 */
+	public FeatureMatrix(DoubleBuffer[] buffers, int[] classIds, int size, ClassDictionary classes){
+		this.noDimensions = buffers.length;
+		this.columns = new double[noDimensions][];
+		this.buffers = buffers.clone();
+		this.copies = new AtomicReferenceArray<double[]>(noDimensions);
+		this.classIds = classIds;
+		this.classes = classes;
+		this.size = size;
+		filled = new AtomicInteger(size);
+	}
+
+	/**
+	 * A matrix sharing the arrays of another
+	 */
+	private FeatureMatrix(FeatureMatrix matrix){
+		noDimensions = matrix.noDimensions;
+		columns = matrix.columns;
+		buffers = matrix.buffers;
+		copies = matrix.copies;
+		classIds = matrix.classIds;
+		classes = matrix.classes;
+		size = matrix.size;
+		filled = matrix.filled;
+	}
+
+	/**
+	 * Adds a row to the end of the matrix, growing the arrays if necessary.
+	 * @param values The value of each dimension for this row
+	 * @param classId The class id of this row
+	 */
+	public void addRow(double[] values, int classId){
+		reserve(1);
+
+		for(int x = 0; x < noDimensions; x++)
+			columns[x][size] = values[x];
+
+		classIds[size] = classId;
+		size++;
+	}
+
+	/**
+	 * Returns a matrix holding the rows of this one followed by the rows given. This matrix is not changed.
+	 * The arrays are shared rather than copied when they have room and no other matrix has added rows to them.
+	 * @param values The value of each dimension for each new row, indexed [row][dimension]
+	 * @param classIds The class id of each new row
+	 * @return The longer matrix
+	 */
+	public FeatureMatrix withRows(double[][] values, int[] classIds){
+		FeatureMatrix matrix = new FeatureMatrix(this);
+		matrix.reserve(values.length);
+
+		for(int y = 0; y < values.length; y++){
+			for(int x = 0; x < noDimensions; x++)
+				matrix.columns[x][matrix.size] = values[y][x];
+			matrix.classIds[matrix.size] = classIds[y];
+			matrix.size++;
+		}
+
+		return matrix;
+	}
+
+	/**
+	 * Make sure this matrix can write the given number of rows after its last row, claiming them in the
+	 * shared arrays or copying the arrays (With room to grow) if they are full or already used past size.
+	 * Columns held in buffers are always copied into arrays.
+	 */
+	private void reserve(int rows){
+		if(buffers == null && size + rows <= classIds.length && filled.compareAndSet(size, size + rows))
+			return;
+
+		//Double the capacity to keep adding rows cheap
+		int newCapacity = Math.max(size + rows, classIds.length * 2);
+
+		double[][] newColumns = new double[noDimensions][];
+		for(int x = 0; x < noDimensions; x++){
+			newColumns[x] = new double[newCapacity];
+			copyColumn(x, newColumns[x]);
+		}
+		columns = newColumns;
+
+		//The rows are held in the arrays from now on
+		buffers = null;
+		copies = null;
+
+		int[] ids = new int[newCapacity];
+		System.arraycopy(classIds, 0, ids, 0, size);
+		classIds = ids;
+
+		filled = new AtomicInteger(size + rows);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int getNoDimensions(){
+		return noDimensions;
+	}
+
+	/**
+	 * Returns the name of a dimension. Dimensions beyond the ones in DIMENSION_NAMES are named by number
+	 * @param dimension The dimension
+	 * @return The name of the dimension, e.g. "Mean Depth" or "Dimension 9"
+	 */
+	public static String dimensionName(int dimension){
+		return dimension < DIMENSION_NAMES.length ? DIMENSION_NAMES[dimension] : "Dimension " + dimension;
+	}
+
+	public double get(int dimension, int row){
+		return buffers == null ? columns[dimension][row] : buffers[dimension].get(row);
+	}
+
+	/**
+	 * Returns the array backing the given dimension. Only the first size() values are rows
+	 * of the matrix. The array is not copied, so should not be altered. If the column is held in a buffer
+	 * it is copied into an array the first time it is asked for, and the copy kept.
+	 * @param dimension The dimension to return
+	 * @return The values of that dimension, indexed by row
+	 */
+	public double[] getColumn(int dimension){
+		if(buffers == null)
+			return columns[dimension];
+
+		double[] column = copies.get(dimension);
+		if(column == null){
+			column = new double[size];
+			copyColumn(dimension, column);
+
+			//Another thread may have copied it first, in which case its copy is used
+			if(!copies.compareAndSet(dimension, null, column))
+				column = copies.get(dimension);
+		}
+		return column;
+	}
+
+	/**
+	 * Returns the values of a dimension as a buffer, without copying them (Arrays are wrapped).
+	 * Read with absolute gets from index 0. Only the first size() values are rows of the matrix.
+	 * @param dimension The dimension to return
+	 * @return A read only buffer of the values of that dimension, indexed by row
+	 */
+	public DoubleBuffer getColumnBuffer(int dimension){
+		DoubleBuffer column = buffers == null ? DoubleBuffer.wrap(columns[dimension]) : buffers[dimension];
+		return column.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copy the rows of a dimension to the start of an array
+	 */
+	private void copyColumn(int dimension, double[] destination){
+		if(buffers == null){
+			System.arraycopy(columns[dimension], 0, destination, 0, size);
+		}else{
+			DoubleBuffer column = buffers[dimension].duplicate();
+			column.clear();
+			column.get(destination, 0, size);
+		}
+	}
+
+	public int getClassId(int row){
+		return classIds[row];
+	}
+
+	/**
+	 * Returns the label of the classification of a row
+	 * @param row The row
+	 * @return The label. null if the row has no classification
+	 */
+	public String getClassification(int row){
+		return classes.label(classIds[row]);
+	}
+
+	public ClassDictionary getClassDictionary(){
+		return classes;
+	}
+
+	/**
+	 * Returns the values as an ArrayList<ArrayList<Double>>, one ArrayList<Double> per dimension
+	 * (The layout used before the data was packed)
+	 * @return ArrayList<ArrayList<Double>> of the values
+	 */
+	public ArrayList<ArrayList<Double>> toValueLists(){
+		ArrayList<ArrayList<Double>> values = new ArrayList<ArrayList<Double>>();
+
+		for(int x = 0; x < noDimensions; x++){
+			ArrayList<Double> list = new ArrayList<Double>(size);
+			for(int y = 0; y < size; y++)
+				list.add(get(x, y));
+			values.add(list);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the classification of each row as an ArrayList<String>
+	 * @return ArrayList<String> of classifications
+	 */
+	public ArrayList<String> toClassificationList(){
+		ArrayList<String> classification = new ArrayList<String>(size);
+
+		for(int y = 0; y < size; y++)
+			classification.add(getClassification(y));
+
+		return classification;
+	}
+}
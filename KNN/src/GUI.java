@@ -6,6 +6,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.concurrent.Callable;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -18,13 +19,16 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTextField;
 import javax.swing.border.MatteBorder;
 
 public class GUI extends JFrame {
 
-	private TunaKNNClassifier knn = new TunaKNNClassifier("data.txt");
-	private GraphCreator gc = new GraphCreator();
+	//The data file is read once, and shared by the classifier and the graph
+	private TunaKNNModel model = new TunaKNNModel("data.txt");
+	private TunaKNNClassifier knn = new TunaKNNClassifier(model);
+	private GraphCreator gc = new GraphCreator(model.getTestSet());
 	
 	private JComboBox<String> KNNSelection;
 	private JComboBox<String> KNNMethod;
@@ -53,6 +57,33 @@ public class GUI extends JFrame {
 	//Indicates which dimensions are currently selected
 	private boolean dimensions[] = new boolean[8];
 	
+	//Runs the one left out test off the event thread, showing the accuracy when done
+	private BackgroundJob<Double> accuracyJob = new BackgroundJob<Double>(){
+		@Override
+		protected Callable<Double> prepare() {
+			final boolean[] dims = dimensions.clone();
+			final int i = KNNSelection.getSelectedIndex() + 1;
+			final int method = KNNMethod.getSelectedIndex() + 1;
+			
+			return new Callable<Double>(){
+				@Override
+				public Double call() {
+					return knn.oneLeftOutTest(dims, i, method);
+				}
+			};
+		}
+		
+		@Override
+		protected void finished(Double result) {
+			eastPanel.setAccuracyLabel(String.format("%.2f%%", result));
+		}
+		
+		@Override
+		protected void busy(boolean busy) {
+			eastPanel.setCalculating(busy);
+		}
+	};
+	
 	public GUI(){
 		initialize();
 	}
@@ -185,17 +216,15 @@ public class GUI extends JFrame {
 			KNNSelection.setSelectedIndex(0);
 		}
 			
-		eastPanel.setAccuracyLabel(String.format("%.2f%%", knn.oneLeftOutTest(dimensions,KNNSelection.getSelectedIndex() + 1,KNNMethod.getSelectedIndex() + 1)));
+		//Run in the background, so the window does not freeze on large test sets
+		accuracyJob.request();
 	}
 	
 	public void updateGraph(){
-		/*Tell the Graph which dimensions are to be shown on the graph, then
-		 * draw the graph and put it on the main panel
+		/*Tell the Graph which dimensions are to be shown on the graph, it
+		 * redraws itself
 		 */
 		setGCDimensions();
-		contentPanel.remove(chartPanel);
-		chartPanel = gc.lineChart();
-		contentPanel.add(chartPanel);
 	}
 	
 	private boolean allCheckBoxesUnselected(){
@@ -217,6 +246,9 @@ public class GUI extends JFrame {
 		private JLabel accuracyTitle = new JLabel("Accuracy:", JLabel.CENTER);
 		private Font accuracyTitleFont = new Font("SansSerif", Font.BOLD, 24);
 		
+		//Shown while the accuracy is being calculated
+		private JProgressBar progress = new JProgressBar();
+		
 		public EastPanel(){
 		
 			setLayout(new BorderLayout());
@@ -232,12 +264,16 @@ public class GUI extends JFrame {
 			accuracy.setFont(accuracyFont);
 			accuracyTitle.setFont(accuracyTitleFont);
 			
+			progress.setIndeterminate(true);
+			progress.setVisible(false);
+			
 			//Panel that displays accuracy
-			JPanel accuracyPanel = new JPanel(new GridLayout(2,1));
+			JPanel accuracyPanel = new JPanel(new GridLayout(3,1));
 			accuracyPanel.setBorder(new MatteBorder(5,5,5,5, Color.RED));
 			
 			accuracyPanel.add(accuracyTitle);
 			accuracyPanel.add(accuracy);
+			accuracyPanel.add(progress);
 			
 			add(accuracyPanel, BorderLayout.SOUTH);
 		}
@@ -245,6 +281,13 @@ public class GUI extends JFrame {
 		public void setAccuracyLabel(String text){
 			accuracy.setText(text);
 		}
+		
+		public void setCalculating(boolean calculating){
+			progress.setVisible(calculating);
+			
+			//Grey out the old accuracy until the new one is ready
+			accuracy.setForeground(calculating ? Color.GRAY : Color.BLACK);
+		}
 	}
 	
 	private class SettingsPanel extends JPanel implements ItemListener{
@@ -414,6 +457,34 @@ public class GUI extends JFrame {
 		//Holds the values to be passed into the classifier
 		private double[] testData = new double[8];
 		
+		//Runs the classification off the event thread, showing the result when done
+		private BackgroundJob<String> classificationJob = new BackgroundJob<String>(){
+			@Override
+			protected Callable<String> prepare() {
+				final boolean[] dims = dimensions.clone();
+				final double[] sample = testData.clone();
+				final int i = KNNSelection.getSelectedIndex() + 1;
+				final int method = KNNMethod.getSelectedIndex() + 1;
+				
+				return new Callable<String>(){
+					@Override
+					public String call() {
+						return knn.classify(dims, sample, i, method);
+					}
+				};
+			}
+			
+			@Override
+			protected void finished(String classification) {
+				result.setText(classification);
+			}
+			
+			@Override
+			protected void busy(boolean busy) {
+				result.setForeground(busy ? Color.GRAY : Color.BLACK);
+			}
+		};
+		
 		public ClassificationPanel(){
 			
 			setLayout(new GridLayout(2,9));
@@ -485,13 +556,10 @@ public class GUI extends JFrame {
 		}
 		
 		public void updateClassification(){	
-				contentPanel.remove(chartPanel);
 			    gc.setSampleData(testData);
-			    chartPanel = gc.lineChart();
-			    contentPanel.add(chartPanel);
 				
-				//Show the classification of the data.
-				result.setText(knn.classify(dimensions, testData, KNNSelection.getSelectedIndex() + 1, KNNMethod.getSelectedIndex()+1));
+				//Show the classification of the data once it has been worked out in the background
+				classificationJob.request();
 		}
 	}
 }
@@ -1,7 +1,7 @@
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 
-import javax.swing.JFrame;
 import javax.swing.JPanel;
 
 import org.jfree.chart.ChartFactory;
@@ -11,93 +11,187 @@ import org.jfree.chart.LegendItem;
 import org.jfree.chart.LegendItemCollection;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.axis.SymbolAxis;
+import org.jfree.chart.labels.StandardXYToolTipGenerator;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.DeviationRenderer;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
-
+import org.jfree.data.xy.AbstractIntervalXYDataset;
 
+/**
+ * @author Ben
+ * Draws the test set (and the sample) as a line chart, one line per row coloured by classification.
+ * The chart is made once and its data is a view of the test set, so changing the dimensions shown or
+ * the sample only redraws it. Test sets with more than MAX_ROW_SERIES rows are drawn as the median of
+ * each classification with a band between its BAND_LOW and BAND_HIGH percentiles instead.
+ */
 public class GraphCreator {
 
+	//Test sets with more rows than this are drawn as percentile bands for each classification
+	public static final int MAX_ROW_SERIES = 1000;
+
+	//Percentiles the bands are drawn between
+	private static final double BAND_LOW = 0.1;
+	private static final double BAND_HIGH = 0.9;
+
+	//Classifications in the legend and their colours. Any other classification is drawn grey
+	private static final String[] LEGEND_LABELS = {"S", "T", "U", "V", "TX"};
+	private static final Color[] LEGEND_COLOURS = {Color.GREEN, Color.RED, Color.ORANGE, Color.BLUE, Color.CYAN};
+
 	//Holds the data read in from the file
-	private ArrayList<String> classification;
-	private ArrayList<ArrayList<Double>> unstandardisedValues = new ArrayList<ArrayList<Double>>();
-	
+	private FeatureMatrix testSet;
+	private int size;
+
+	//Colour of each class id of the test set
+	private Color[] classColours;
+
 	private boolean[] dimensionsToShow = new boolean[8];
-	private final String[] dimensionNames = {"Mean Depth", "Median Depth", "SD Depth", "IQR Depth", 
-									   "Mean Temp", "Median Temp", "SD Temp", "IQR Temp"};
-	
+
+	//The dimension shown at each point along the X-axis
+	private int[] shown = new int[0];
+
 	private boolean showSample = true;
-	
+
 	private double[] sampleData = {0,0,0,0,0,0,0,0};
-	
+
+	//Whether the test set is drawn as bands, the class id of each band and its low, median and high value
+	//of each dimension, indexed [band][dimension][0-2]
+	private boolean showBands;
+	private int[] bandClasses;
+	private double[][][] bands;
+
+	//The chart is only made once, then updated
+	private TestSetDataset dataset = new TestSetDataset();
+	private XYLineAndShapeRenderer lineRenderer;
+	private DeviationRenderer bandRenderer;
+	private JFreeChart chart;
+	private XYPlot plot;
+	private ChartPanel chartPanel;
+
 	public GraphCreator(){
+		createChart();
 		reloadData("data.txt");
 	}
-	
+
+	public GraphCreator(FeatureMatrix testSet){
+		createChart();
+		reloadData(testSet);
+	}
+
 	public void reloadData(String filename){
-		unstandardisedValues = TunaDataFileRead.readValues(filename);
-		classification = TunaDataFileRead.readClassifications(filename);
+		//Values and classifications are read together, so the file is only read once
+		reloadData(TunaDataFileRead.readMatrix(filename));
+	}
+
+	public void reloadData(FeatureMatrix testSet){
+		this.testSet = testSet;
+		size = testSet.size();
+		showBands = size > MAX_ROW_SERIES;
+
+		ClassDictionary classes = testSet.getClassDictionary();
+		classColours = new Color[classes.size()];
+		for(int c = 0; c < classColours.length; c++){
+			classColours[c] = Color.GRAY;
+			for(int l = 0; l < LEGEND_LABELS.length; l++)
+				if(LEGEND_LABELS[l].equals(classes.label(c)))
+					classColours[c] = LEGEND_COLOURS[l];
+		}
+
+		if(showBands){
+			findBands();
+
+			//Colour each band by its classification
+			for(int s = 0; s < bandClasses.length; s++){
+				bandRenderer.setSeriesPaint(s + 1, classColours[bandClasses[s]], false);
+				bandRenderer.setSeriesFillPaint(s + 1, classColours[bandClasses[s]], false);
+			}
+			plot.setRenderer(bandRenderer);
+			chart.setTitle("Classifications (" + percent(BAND_LOW) + "-" + percent(BAND_HIGH) + " percentile)");
+		}else{
+			bands = null;
+
+			//Colour each row by its classification (Rows without one are grey)
+			for(int y = 0; y < size; y++){
+				int classId = testSet.getClassId(y);
+				lineRenderer.setSeriesPaint(y + 1, classId < 0 ? Color.GRAY : classColours[classId], false);
+			}
+			plot.setRenderer(lineRenderer);
+			chart.setTitle("Classifications");
+		}
+
+		dataset.changed();
 	}
-	
+
 	public void setDimensionsToShow(boolean meanDepth, boolean medianDepth, boolean sdDepth, boolean iqrDepth,
 										boolean meanTemp, boolean medianTemp, boolean sdTemp, boolean iqrTemp){
-		//Set the dimensions that the next created graph should show
-		dimensionsToShow[0] = meanDepth;
-		dimensionsToShow[1] = medianDepth;
-		dimensionsToShow[2] = sdDepth;
-		dimensionsToShow[3] = iqrDepth;
-		dimensionsToShow[4] = meanTemp;
-		dimensionsToShow[5] = medianTemp;
-		dimensionsToShow[6] = sdTemp;
-		dimensionsToShow[7] = iqrTemp;
+		boolean[] dimensions = {meanDepth, medianDepth, sdDepth, iqrDepth, meanTemp, medianTemp, sdTemp, iqrTemp};
+
+		//Nothing to redraw if the same dimensions are shown
+		if(Arrays.equals(dimensions, dimensionsToShow))
+			return;
+
+		//Set the dimensions that the graph should show
+		dimensionsToShow = dimensions;
+
+		//Create a list of the dimensions that will be shown
+		ArrayList<String> dimensionsShown = new ArrayList<String>();
+		shown = new int[8];
+		for(int x = 0; x < 8; x++){
+			if(dimensionsToShow[x]){
+				shown[dimensionsShown.size()] = x;
+				dimensionsShown.add(FeatureMatrix.DIMENSION_NAMES[x]);
+			}
+		}
+		shown = Arrays.copyOf(shown, dimensionsShown.size());
+		String[] strArray = dimensionsShown.toArray(new String[dimensionsShown.size()]);
+
+		//The above list is passed to be the labels on the X-axis
+		SymbolAxis sa = new SymbolAxis("Measurement", strArray);
+		sa.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
+		plot.setDomainAxis(sa);
+
+		//Show shapes if only one dimensions shown (Doesn't show up otherwise)
+		boolean showShapes = (dimensionsShown.size() == 1);
+		lineRenderer.setBaseShapesVisible(showShapes);
+		bandRenderer.setBaseShapesVisible(showShapes);
+
+		dataset.changed();
 	}
-	
+
 	public void setSampleData(double[] sampleData){
 		//Set the sample data (May/May not be shown on the graph
 		for(int x = 0; x < 8; x++)
 			this.sampleData[x] = sampleData[x];
+
+		if(showSample)
+			dataset.changed();
 	}
-	
+
 	public void showSample(boolean show){
 		//Set wheter sample will be shown on the graph
+		if(showSample == show)
+			return;
+
 		showSample = show;
+		plot.setFixedLegendItems(legendItems());
+		dataset.changed();
 	}
-	
+
+	/**
+	 * Returns the panel showing the chart. The same panel is returned every time, and is kept up to date as
+	 * the dimensions shown and the sample change.
+	 * @return The chart panel
+	 */
 	public JPanel lineChart(){
-		XYSeriesCollection dataset = new XYSeriesCollection();
-		
-		//For all the classified sets we have
-		for(int y = 0; y < unstandardisedValues.get(0).size(); y++){
-			XYSeries series = new XYSeries("Test" + y);
-			
-			//Create a series containing the dimensions that have been set
-			int t = 0;
-			for(int x = 0; x < 8; x++)
-				if(dimensionsToShow[x]){	
-					series.add(t, unstandardisedValues.get(x).get(y));
-					t++;
-				}
-				
-			//Add the series to the dataset
-			dataset.addSeries(series);
-		}
-		
-		//Add the sample if the user wants it
-		if(showSample){
-			XYSeries testDataSeries = new XYSeries("Test sample");
-			int t = 0;
-			for(int x = 0; x < 8; x++)
-				if(dimensionsToShow[x]){	
-					testDataSeries.add(t, sampleData[x]);
-					t++;
-				}
-			dataset.addSeries(testDataSeries);
-		}
-		
+		return chartPanel;
+	}
+
+	/**
+	 * Make the chart, plot and renderers the test set is drawn with
+	 */
+	private void createChart(){
 		// create the chart...
-		JFreeChart chart = ChartFactory.createXYLineChart(
+		chart = ChartFactory.createXYLineChart(
 				"Classifications",      // chart title
 				"Category",                      // x axis label
 				"Value",                      // y axis label
@@ -110,96 +204,212 @@ public class GraphCreator {
 
 		chart.setBackgroundPaint(Color.white);
 
-		XYPlot plot = chart.getXYPlot();
+		plot = chart.getXYPlot();
 		plot.setBackgroundPaint(Color.lightGray);
 
-		//Create a custom legend. One item for each category
+		//Attach the custom legend to the graph
+		plot.setFixedLegendItems(legendItems());
+
+		//One line per row of the test set
+		lineRenderer = new XYLineAndShapeRenderer();
+		lineRenderer.setBaseToolTipGenerator(new StandardXYToolTipGenerator());
+
+		//A line and band per classification
+		bandRenderer = new DeviationRenderer(true, false);
+		bandRenderer.setAlpha(0.3f);
+		bandRenderer.setBaseToolTipGenerator(new StandardXYToolTipGenerator());
+
+		//The sample is the first series. It should be black and have the shapes visible
+		lineRenderer.setSeriesPaint(0, Color.BLACK);
+		lineRenderer.setSeriesShapesVisible(0, true);
+		bandRenderer.setSeriesPaint(0, Color.BLACK);
+		bandRenderer.setSeriesFillPaint(0, Color.BLACK);
+		bandRenderer.setSeriesShapesVisible(0, true);
+		plot.setRenderer(lineRenderer);
+
+		//Set both axis to have Integer intervals.
+		NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
+		rangeAxis.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
+		plot.setDomainAxis(new SymbolAxis("Measurement", new String[0]));
+
+		chartPanel = new ChartPanel(chart);
+		chartPanel.setPreferredSize(new java.awt.Dimension(500, 270));
+	}
+
+	/**
+	 * Create a custom legend. One item for each category
+	 */
+	private LegendItemCollection legendItems(){
 		LegendItemCollection legendItems =new LegendItemCollection();
 		legendItems.add(new LegendItem("Shallow Behaviour", Color.GREEN));
 		legendItems.add(new LegendItem("Thermocline Association", Color.RED));
 		legendItems.add(new LegendItem("U-Shaped Dive", Color.ORANGE));
 		legendItems.add(new LegendItem("V-Shaped Dive", Color.BLUE));
 		legendItems.add(new LegendItem("Unclassified", Color.CYAN));
-		
+
 		//Add an extra legend item if the sample is displayed
 		if(showSample)
 			legendItems.add(new LegendItem("Sample", Color.BLACK));
-		
-		//Attach the custom legend to the graph
-		plot.setFixedLegendItems(legendItems);
-		
-		//Create a list of the dimensions that will be shown
-		ArrayList<String> dimensionsShown = new ArrayList<String>();
+
+		return legendItems;
+	}
+
+	/**
+	 * Work out the low percentile, median and high percentile of each dimension for every classification
+	 * in the test set. Rows without a classification are left out.
+	 */
+	private void findBands(){
+		int[] counts = new int[classColours.length];
+		for(int y = 0; y < size; y++)
+			if(testSet.getClassId(y) >= 0)
+				counts[testSet.getClassId(y)]++;
+
+		//One band for each classification in the test set
+		int noBands = 0;
+		int[] bandOf = new int[counts.length];
+		bandClasses = new int[counts.length];
+		for(int c = 0; c < counts.length; c++)
+			if(counts[c] > 0){
+				bandOf[c] = noBands;
+				bandClasses[noBands++] = c;
+			}
+		bandClasses = Arrays.copyOf(bandClasses, noBands);
+		bands = new double[noBands][8][];
+
+		//Sort the values of each classification, one dimension at a time
+		double[][] values = new double[noBands][];
+		for(int b = 0; b < noBands; b++)
+			values[b] = new double[counts[bandClasses[b]]];
+
+		int[] filled = new int[noBands];
 		for(int x = 0; x < 8; x++){
-			if(dimensionsToShow[x])
-				dimensionsShown.add(dimensionNames[x]);
-		}
-		String[] strArray = dimensionsShown.toArray(new String[dimensionsShown.size()]);
-		
-		//The above list is passed to be the labels on the X-axis
-		SymbolAxis sa = new SymbolAxis("Measurement", strArray);
-		plot.setDomainAxis(sa);
-		
-		//Show shapes if only one dimensions shown (Doesn't show up otherwise)
-		boolean showShapes = (dimensionsShown.size() == 1);
+			Arrays.fill(filled, 0);
+			for(int y = 0; y < size; y++){
+				int classId = testSet.getClassId(y);
+				if(classId >= 0){
+					int b = bandOf[classId];
+					values[b][filled[b]++] = testSet.get(x, y);
+				}
+			}
 
-		int seriesToColourCodeCount = dataset.getSeriesCount();
-		if(showSample)
-			seriesToColourCodeCount = dataset.getSeriesCount() - 1;
-		
-		XYLineAndShapeRenderer renderer = new XYLineAndShapeRenderer();
-		for(int x = 0; x < seriesToColourCodeCount; x++){
-			
-			//Colour the series based on classification
-			if(classification.get(x).matches("S"))
-				renderer.setSeriesPaint(x, Color.GREEN);
-		
-			if(classification.get(x).matches("T"))
-				renderer.setSeriesPaint(x, Color.RED);
-			
-			if(classification.get(x).matches("U"))
-				renderer.setSeriesPaint(x, Color.ORANGE);
-			
-			if(classification.get(x).matches("V"))
-				renderer.setSeriesPaint(x, Color.BLUE);
-			
-			if(classification.get(x).matches("TX"))
-				renderer.setSeriesPaint(x, Color.CYAN);
-			
-			//Set shapes to be visible if only 1 dimension
-			renderer.setSeriesShapesVisible(x, showShapes);
-		}
-		
-		//If the sample is shown, it should be black and have the shapes visible
-		if(showSample){
-			renderer.setSeriesPaint(dataset.getSeriesCount() - 1, Color.BLACK);
-			renderer.setSeriesShapesVisible(dataset.getSeriesCount() - 1, true);
-		}
-		plot.setRenderer(renderer);
+			for(int b = 0; b < noBands; b++){
+				Arrays.sort(values[b]);
+				bands[b][x] = new double[] {percentile(values[b], BAND_LOW), percentile(values[b], 0.5), percentile(values[b], BAND_HIGH)};
+			}
+		}
+	}
 
-		//Set both axis to have Integer intervals.
-		NumberAxis rangeAxis = (NumberAxis) plot.getRangeAxis();
-		rangeAxis.setStandardTickUnits(NumberAxis.createIntegerTickUnits());
-		plot.getDomainAxis().setStandardTickUnits(NumberAxis.createIntegerTickUnits()); 
-		
-		ChartPanel chartPanel = new ChartPanel(chart);
-		chartPanel.setPreferredSize(new java.awt.Dimension(500, 270));
+	/**
+	 * Returns the value at the given percentile of the sorted values (Nearest rank)
+	 */
+	private static double percentile(double[] sorted, double p){
+		return sorted[(int) Math.round(p * (sorted.length - 1))];
+	}
 
-		return chartPanel;
+	private static String percent(double p){
+		return Math.round(p * 100) + "th";
 	}
-}
 
+	/**
+	 * @author Ben
+	 * The series drawn on the chart, read straight from the test set. Series 0 is the sample (No points
+	 * when it is hidden), then either one series per row or one per band. Point t of each series is the
+	 * value of the t'th dimension shown.
+	 */
+	private class TestSetDataset extends AbstractIntervalXYDataset {
+		private static final long serialVersionUID = 1L;
 
+		//Which of the low, median and high band values is the Y value
+		private static final int LOW = 0;
+		private static final int MEDIAN = 1;
+		private static final int HIGH = 2;
+
+		/**
+		 * Tell the chart the data has changed, so it is redrawn
+		 */
+		void changed(){
+			fireDatasetChanged();
+		}
 
+		@Override
+		public int getSeriesCount() {
+			if(testSet == null)
+				return 1;
+			return 1 + (showBands ? bandClasses.length : size);
+		}
+
+		@Override
+		public Comparable<String> getSeriesKey(int series) {
+			if(series == 0)
+				return "Test sample";
+			if(showBands)
+				return testSet.getClassDictionary().label(bandClasses[series - 1]);
+			return "Test" + (series - 1);
+		}
 
+		@Override
+		public int getItemCount(int series) {
+			if(series == 0 && !showSample)
+				return 0;
+			return shown.length;
+		}
 
+		private double value(int series, int item, int which){
+			if(series == 0)
+				return sampleData[shown[item]];
+			if(showBands)
+				return bands[series - 1][shown[item]][which];
+			return testSet.get(shown[item], series - 1);
+		}
 
+		@Override
+		public double getXValue(int series, int item) {
+			return item;
+		}
 
+		@Override
+		public double getYValue(int series, int item) {
+			return value(series, item, MEDIAN);
+		}
 
+		@Override
+		public double getStartYValue(int series, int item) {
+			return value(series, item, LOW);
+		}
 
+		@Override
+		public double getEndYValue(int series, int item) {
+			return value(series, item, HIGH);
+		}
 
+		@Override
+		public Number getX(int series, int item) {
+			return getXValue(series, item);
+		}
 
+		@Override
+		public Number getY(int series, int item) {
+			return getYValue(series, item);
+		}
 
+		@Override
+		public Number getStartX(int series, int item) {
+			return getX(series, item);
+		}
 
+		@Override
+		public Number getEndX(int series, int item) {
+			return getX(series, item);
+		}
 
+		@Override
+		public Number getStartY(int series, int item) {
+			return getStartYValue(series, item);
+		}
 
+		@Override
+		public Number getEndY(int series, int item) {
+			return getEndYValue(series, item);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * @author Ben
+ * Static methods shared by the nearest neighbour indexes.
+ */
+public abstract class IndexMath {
+
+	/**Returns the squared distance between a sample and a row of the test set. Summed in dimension order
+	 * exactly as a scan of the test set does, so the same distances (and ties) are found.
+	 * @param testSet The standardised test set, indexed [dimension][row]
+	 * @param dimensions The dimensions included, in ascending order
+	 * @param sample The standardised sample
+	 * @param row The test set index of the row
+	 * @return The squared distance
+	 */
+	public static double distance(double[][] testSet, int[] dimensions, double[] sample, int row){
+		double distance = 0;
+		
+		for(int d : dimensions)
+			distance += Math.pow(Math.abs(sample[d] - testSet[d][row]), 2);
+		
+		return distance;
+	}
+	
+	/**Returns the squared distance between two points, each indexed by dimension
+	 * @param dimensions The dimensions included
+	 * @param a The first point
+	 * @param b The second point
+	 * @return The squared distance
+	 */
+	public static double distance(int[] dimensions, double[] a, double[] b){
+		double distance = 0;
+		
+		for(int d : dimensions)
+			distance += Math.pow(Math.abs(a[d] - b[d]), 2);
+		
+		return distance;
+	}
+	
+	/**Reorders rows[start..end) so the row at position nth has the value it would have if the range were 
+	 * sorted by key, rows before it have keys <= its key and rows after it have keys >= its key. 
+	 * @param rows The test set indexes to reorder
+	 * @param start First position of the range (inclusive)
+	 * @param end Last position of the range (exclusive)
+	 * @param nth The position to select
+	 * @param key The value of each row, indexed by test set index
+	 */
+	public static void select(int[] rows, int start, int end, int nth, double[] key){
+		int low = start;
+		int high = end - 1;
+		
+		while(low < high){
+			double pivot = key[rows[(low + high) >>> 1]];
+			int x = low;
+			int y = high;
+			
+			//Move keys < pivot left and keys > pivot right
+			while(x <= y){
+				while(key[rows[x]] < pivot)
+					x++;
+				while(key[rows[y]] > pivot)
+					y--;
+				if(x <= y){
+					int temp = rows[x];
+					rows[x] = rows[y];
+					rows[y] = temp;
+					x++;
+					y--;
+				}
+			}
+			
+			//Carry on in the part holding nth
+			if(nth <= y)
+				high = y;
+			else if(nth >= x)
+				low = x;
+			else
+				return;
+		}
+	}
+}
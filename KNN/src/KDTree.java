@@ -0,0 +1,191 @@
+/**
+ * @author Ben
+ * A k-d tree over the rows of a standardised test set. Each node splits its rows in half on the 
+ * included dimension with the largest spread, so whole branches can be skipped when the sample is
+ * further from the split than the ith nearest neighbour found so far.
+ * The split bounds are held as rows rather than values. Standardising keeps the order of every
+ * dimension's values, so the bounds stay correct when the test set is re-standardised, and rows
+ * can be added without rebuilding the tree.
+ */
+public class KDTree implements NeighbourIndex {
+
+	//Most rows held by a leaf. Below this scanning the rows is quicker than splitting further
+	private static final int LEAF_SIZE = 16;
+	
+	//The standardised test set, indexed [dimension][row], and the dimensions included
+	private double[][] testSet;
+	private int[] dimensions;
+	
+	//Test set indexes, grouped so each node holds a continuous range (Only used while building)
+	private int[] rows;
+	
+	private Node root;
+	
+	//Number of rows the tree was built over, and the number it holds now
+	private int builtSize;
+	private int size;
+	
+	/**
+	 * Build a tree over the first size rows of the test set
+	 * @param testSet The standardised test set, indexed [dimension][row]
+	 * @param size Number of rows in the test set
+	 * @param dimensions The dimensions included, in ascending order
+	 */
+	public KDTree(double[][] testSet, int size, int[] dimensions){
+		this.testSet = testSet;
+		this.dimensions = dimensions.clone();
+		
+		rows = new int[size];
+		for(int y = 0; y < size; y++)
+			rows[y] = y;
+		
+		root = build(0, size);
+		
+		builtSize = size;
+		this.size = size;
+		rows = null;
+	}
+	
+	private Node build(int start, int end){
+		Node node = new Node();
+		
+		if(end - start <= LEAF_SIZE)
+			return leaf(node, start, end);
+		
+		//Split on the dimension the rows are most spread out in
+		double widest = -1;
+		for(int d : dimensions){
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for(int x = start; x < end; x++){
+				min = Math.min(min, testSet[d][rows[x]]);
+				max = Math.max(max, testSet[d][rows[x]]);
+			}
+			if(max - min > widest){
+				widest = max - min;
+				node.splitDimension = d;
+			}
+		}
+		
+		//Every row the same, nothing to split
+		if(widest <= 0)
+			return leaf(node, start, end);
+		
+		int middle = (start + end) / 2;
+		IndexMath.select(rows, start, end, middle, testSet[node.splitDimension]);
+		
+		//Rows below middle are <= the middle value, and rows from middle onward are >=
+		double[] column = testSet[node.splitDimension];
+		node.leftMax = rows[start];
+		for(int x = start; x < middle; x++)
+			if(column[rows[x]] > column[node.leftMax])
+				node.leftMax = rows[x];
+		node.rightMin = rows[middle];
+		
+		node.left = build(start, middle);
+		node.right = build(middle, end);
+		
+		return node;
+	}
+	
+	/**
+	 * Make the node a leaf holding the rows from start to end
+	 */
+	private Node leaf(Node node, int start, int end){
+		node.count = end - start;
+		node.rows = new int[Math.max(1, node.count)];
+		System.arraycopy(rows, start, node.rows, 0, node.count);
+		return node;
+	}
+	
+	@Override
+	public void findNeighbours(double[] sample, NeighbourCandidates candidates){
+		search(root, sample, candidates);
+	}
+	
+	private void search(Node node, double[] sample, NeighbourCandidates candidates){
+		if(node.left == null){
+			//Leaf, check every row
+			for(int x = 0; x < node.count; x++)
+				candidates.offer(IndexMath.distance(testSet, dimensions, sample, node.rows[x]), node.rows[x]);
+			return;
+		}
+		
+		/*Nearest distance possible to any row of each side, from the split dimension alone.
+		 * The full distance adds the other dimensions to this, so can only be larger */
+		double[] column = testSet[node.splitDimension];
+		double value = sample[node.splitDimension];
+		double leftMax = column[node.leftMax];
+		double rightMin = column[node.rightMin];
+		double leftBound = value > leftMax ? Math.pow(Math.abs(value - leftMax), 2) : 0;
+		double rightBound = value < rightMin ? Math.pow(Math.abs(value - rightMin), 2) : 0;
+		
+		//Search the nearer side first, so the further side is more likely to be skipped
+		if(leftBound <= rightBound){
+			search(node.left, sample, candidates);
+			if(rightBound <= candidates.worstDistance())
+				search(node.right, sample, candidates);
+		}else{
+			search(node.right, sample, candidates);
+			if(leftBound <= candidates.worstDistance())
+				search(node.left, sample, candidates);
+		}
+	}
+	
+	@Override
+	public boolean addRows(double[][] testSet, int size, double[] mean, double[] sd){
+		//The order of each dimension is unchanged by re-standardising, so the tree only needs the new rows
+		this.testSet = testSet;
+		
+		for(int row = this.size; row < size; row++)
+			add(row);
+		this.size = size;
+		
+		//Leaves only grow, so searches slow down once the tree holds many more rows than it was built over
+		return size <= builtSize * 2;
+	}
+	
+	/**
+	 * Add a row to the leaf on its side of every split, widening the split bounds if needed
+	 */
+	private void add(int row){
+		Node node = root;
+		
+		while(node.left != null){
+			double[] column = testSet[node.splitDimension];
+			
+			if(column[row] < column[node.rightMin]){
+				if(column[row] > column[node.leftMax])
+					node.leftMax = row;
+				node = node.left;
+			}else
+				node = node.right;
+		}
+		
+		if(node.count == node.rows.length){
+			int[] longer = new int[node.rows.length * 2];
+			System.arraycopy(node.rows, 0, longer, 0, node.count);
+			node.rows = longer;
+		}
+		node.rows[node.count++] = row;
+	}
+	
+	/**
+	 * @author Ben
+	 * A set of rows. Leaves hold the rows and have no children, other nodes split their rows between two children.
+	 */
+	private static class Node{
+		//Rows held by a leaf (Only the first count are used)
+		int[] rows;
+		int count;
+		
+		int splitDimension;
+		
+		//Rows with the largest value of the left child and smallest value of the right child in the split dimension
+		int leftMax;
+		int rightMin;
+		
+		Node left;
+		Node right;
+	}
+}
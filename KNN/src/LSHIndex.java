@@ -0,0 +1,463 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Ben
+ * An approximate index over the rows of a standardised test set, using random projection locality sensitive
+ * hashing. Each of several tables projects the rows onto a number of random directions and cuts each direction
+ * into slabs of the same width. Rows in the same slab of every direction share a bucket. Nearby rows are
+ * likely to share a bucket in at least one table, so only the rows in the sample's buckets are checked.
+ * Rows just across the slab edges the sample is nearest to are found by also probing the buckets on the
+ * other side of those edges. More tables and probes find more of the true neighbours (Higher recall), more
+ * directions or narrower slabs make the buckets smaller (Faster). If the buckets hold fewer than i rows,
+ * every row is checked.
+ * Like BallTree, the directions stay in the standardised units the index was built with, and samples and
+ * rows added are converted back to those units.
+ */
+public class LSHIndex implements NeighbourIndex {
+
+	//Rows sharing a bucket with each row aimed for when the slab width is picked from the test set
+	private static final int BUCKET_ROWS = 32;
+
+	//Most rows sampled to pick the slab width
+	private static final int WIDTH_SAMPLE = 4096;
+
+	//Directions are the same for the same test set, so results can be repeated
+	private static final long SEED = 20392039L;
+
+	//The standardised test set, indexed [dimension][row], and the dimensions included
+	private double[][] testSet;
+	private int[] dimensions;
+
+	//Number of tables, directions in each table, and extra buckets probed in each table
+	private int noTables;
+	private int noProjections;
+	private int noProbes;
+
+	//Width of the slabs
+	private double width;
+
+	//Each direction (Indexed [table * noProjections + projection][included dimension]), and how far along a slab it starts
+	private double[][] directions;
+	private double[] starts;
+
+	private Table[] tables;
+
+	//Number of rows the index was built over, and the number it holds now
+	private int builtSize;
+	private int size;
+
+	//Mean and SD of each dimension the test set was standardised with when the index was built
+	private double[] builtMean;
+	private double[] builtSD;
+
+	//A standardised value now is converted to the units the index was built in by value * scale + shift
+	private double[] scale;
+	private double[] shift;
+
+	//Rows found by the calling thread's searches
+	private final ThreadLocal<Probe> probes = new ThreadLocal<Probe>(){
+		@Override
+		protected Probe initialValue() {
+			return new Probe();
+		}
+	};
+
+	/**
+	 * Build an index over the first size rows of the test set
+	 * @param testSet The standardised test set, indexed [dimension][row]
+	 * @param size Number of rows in the test set
+	 * @param dimensions The dimensions included, in ascending order
+	 * @param mean The mean of each dimension the test set was standardised with
+	 * @param sd The standard deviation of each dimension the test set was standardised with
+	 * @param noTables Number of hash tables (Each row is held once in each)
+	 * @param noProjections Directions in each table. 0 for one per dimension included
+	 * @param width Width of the slabs, in standard deviations. 0 to pick from the test set
+	 * @param noProbes Extra buckets checked in each table, up to noProjections
+	 */
+	public LSHIndex(double[][] testSet, int size, int[] dimensions, double[] mean, double[] sd,
+					int noTables, int noProjections, double width, int noProbes){
+		this.testSet = testSet;
+		this.dimensions = dimensions.clone();
+		this.noTables = noTables;
+		this.noProjections = noProjections == 0 ? dimensions.length : noProjections;
+		this.noProbes = Math.min(noProbes, this.noProjections);
+
+		builtMean = mean.clone();
+		builtSD = sd.clone();
+		scale = new double[testSet.length];
+		shift = new double[testSet.length];
+		Arrays.fill(scale, 1);
+
+		Random random = new Random(SEED);
+		directions = new double[noTables * this.noProjections][dimensions.length];
+		starts = new double[noTables * this.noProjections];
+		for(int p = 0; p < directions.length; p++){
+			for(int n = 0; n < dimensions.length; n++)
+				directions[p][n] = random.nextGaussian();
+			starts[p] = random.nextDouble();
+		}
+
+		this.width = width > 0 ? width : pickWidth(size, random);
+
+		tables = new Table[noTables];
+		long[] keys = new long[size];
+		double[] projections = new double[size];
+		for(int t = 0; t < noTables; t++){
+			keys(t, 0, size, keys, projections);
+
+			tables[t] = new Table(size / BUCKET_ROWS + 1);
+			for(int y = 0; y < size; y++)
+				tables[t].add(keys[y], y);
+		}
+
+		builtSize = size;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the slab width that puts about BUCKET_ROWS rows in each row's bucket of the first table,
+	 * found by halving the range of widths on a sample of the rows
+	 */
+	private double pickWidth(int size, Random random){
+		int noSampled = Math.min(size, WIDTH_SAMPLE);
+		if(noSampled < 2 || size <= BUCKET_ROWS)
+			return 1;
+
+		//Projections of the sampled rows onto the first table's directions
+		double[][] projections = new double[noProjections][noSampled];
+		for(int s = 0; s < noSampled; s++){
+			int row = noSampled == size ? s : random.nextInt(size);
+			for(int p = 0; p < noProjections; p++)
+				for(int n = 0; n < dimensions.length; n++)
+					projections[p][s] += directions[p][n] * testSet[dimensions[n]][row];
+		}
+
+		long[] keys = new long[noSampled];
+		double low = 1e-6;
+		double high = 1e6;
+		for(int step = 0; step < 60; step++){
+			double middle = Math.sqrt(low * high);
+
+			for(int s = 0; s < noSampled; s++){
+				long key = 0;
+				for(int p = 0; p < noProjections; p++)
+					key = mix(key, slab(projections[p][s], p, middle));
+				keys[s] = key;
+			}
+
+			//Pairs of sampled rows sharing a bucket, scaled up to the whole test set
+			Arrays.sort(keys);
+			double pairs = 0;
+			for(int s = 0, run = 1; s < noSampled; s++, run++)
+				if(s == noSampled - 1 || keys[s + 1] != keys[s]){
+					pairs += (double) run * (run - 1);
+					run = 0;
+				}
+			double sharing = pairs / noSampled * (size - 1) / (noSampled - 1);
+
+			if(sharing > BUCKET_ROWS)
+				high = middle;
+			else
+				low = middle;
+		}
+
+		return Math.sqrt(low * high);
+	}
+
+	/**
+	 * Returns the slab a projection onto direction p is in
+	 */
+	private int slab(double projection, int p, double width){
+		return (int) Math.floor(projection / width + starts[p]);
+	}
+
+	/**
+	 * Returns a key adding one more slab to the key of the slabs before it
+	 */
+	private static long mix(long key, int slab){
+		return (key + slab) * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Work out the key of rows from (inclusive) to to (exclusive) in a table, a direction at a time over the columns
+	 * @param t The table
+	 * @param keys Set to the key of each row (Indexed y - from)
+	 * @param projections Space for the projection of each row onto a direction
+	 */
+	private void keys(int t, int from, int to, long[] keys, double[] projections){
+		Arrays.fill(keys, 0, to - from, 0);
+
+		for(int p = t * noProjections; p < (t + 1) * noProjections; p++){
+			Arrays.fill(projections, 0, to - from, 0);
+
+			for(int n = 0; n < dimensions.length; n++){
+				double[] column = testSet[dimensions[n]];
+				double weight = directions[p][n] * scale[dimensions[n]];
+				double add = directions[p][n] * shift[dimensions[n]];
+				for(int y = from; y < to; y++)
+					projections[y - from] += weight * column[y] + add;
+			}
+
+			for(int y = 0; y < to - from; y++)
+				keys[y] = mix(keys[y], slab(projections[y], p, width));
+		}
+	}
+
+	@Override
+	public void findNeighbours(double[] sample, NeighbourCandidates candidates){
+		Probe probe = probes.get();
+		collect(sample, probe);
+
+		for(int x = 0; x < probe.count; x++){
+			int row = probe.rows[x];
+			candidates.offer(IndexMath.distance(testSet, dimensions, sample, row), row);
+		}
+
+		//Too few rows in the buckets, so check the rest as well
+		if(!candidates.isFull())
+			for(int row = 0; row < size; row++)
+				if(probe.seen[row] != probe.stamp)
+					candidates.offer(IndexMath.distance(testSet, dimensions, sample, row), row);
+	}
+
+	/**
+	 * Find the rows in the buckets of a sample (Each once, in no particular order)
+	 * @param sample The standardised sample, indexed by dimension
+	 * @param probe Set to the rows found
+	 */
+	void collect(double[] sample, Probe probe){
+		probe.start(size, noProjections);
+
+		int[] slabs = probe.slabs;
+		int[] across = probe.across;
+		double[] edges = probe.edges;
+
+		for(int t = 0; t < noTables; t++){
+			//Slab of the sample along each direction, and how near it is to the nearer edge
+			for(int j = 0; j < noProjections; j++){
+				int p = t * noProjections + j;
+				double projection = 0;
+				for(int n = 0; n < dimensions.length; n++){
+					int d = dimensions[n];
+					projection += directions[p][n] * (sample[d] * scale[d] + shift[d]);
+				}
+
+				double position = projection / width + starts[p];
+				slabs[j] = (int) Math.floor(position);
+				double along = position - slabs[j];
+				across[j] = along < 0.5 ? -1 : 1;
+				edges[j] = Math.min(along, 1 - along);
+			}
+
+			probe.add(tables[t], key(slabs));
+
+			//Then the buckets across the nearest edges, nearest first
+			for(int n = 0; n < noProbes; n++){
+				int nearest = 0;
+				for(int j = 1; j < noProjections; j++)
+					if(edges[j] < edges[nearest])
+						nearest = j;
+
+				slabs[nearest] += across[nearest];
+				probe.add(tables[t], key(slabs));
+				slabs[nearest] -= across[nearest];
+				edges[nearest] = Double.POSITIVE_INFINITY;
+			}
+		}
+	}
+
+	/**
+	 * Returns the key of a table's slabs
+	 */
+	private long key(int[] slabs){
+		long key = 0;
+		for(int j = 0; j < noProjections; j++)
+			key = mix(key, slabs[j]);
+		return key;
+	}
+
+	@Override
+	public boolean addRows(double[][] testSet, int size, double[] mean, double[] sd){
+		this.testSet = testSet;
+
+		//(x - mean) / sd = ((x - builtMean) / builtSD) * (builtSD / sd) + (builtMean - mean) / sd, so undo that
+		for(int d : dimensions){
+			scale[d] = sd[d] / builtSD[d];
+			shift[d] = (mean[d] - builtMean[d]) / builtSD[d];
+		}
+
+		long[] keys = new long[size - this.size];
+		double[] projections = new double[size - this.size];
+		for(int t = 0; t < noTables; t++){
+			keys(t, this.size, size, keys, projections);
+			for(int y = this.size; y < size; y++)
+				tables[t].add(keys[y - this.size], y);
+		}
+		this.size = size;
+
+		//Buckets only grow, so searches slow down once the index holds many more rows than it was built over
+		return size <= builtSize * 2;
+	}
+
+	/**
+	 * @author Ben
+	 * The buckets of one hash table: the rows with each key, found by open addressing on the key.
+	 */
+	private static class Table{
+		//Key held in each slot, and the bucket it belongs to (-1 for an empty slot)
+		long[] keys;
+		int[] slots;
+
+		//Rows of each bucket, in test set order (Only the first count of each are used)
+		int[][] rows;
+		int[] counts;
+		int noBuckets;
+
+		Table(int expectedBuckets){
+			int capacity = Integer.highestOneBit(Math.max(8, expectedBuckets * 2) - 1) << 1;
+			keys = new long[capacity];
+			slots = new int[capacity];
+			Arrays.fill(slots, -1);
+
+			rows = new int[expectedBuckets][];
+			counts = new int[expectedBuckets];
+		}
+
+		/**
+		 * Returns the slot holding a key, or the empty slot it would go in
+		 */
+		int slot(long key){
+			int mask = keys.length - 1;
+			int s = (int) (key ^ key >>> 32) & mask;
+			while(slots[s] != -1 && keys[s] != key)
+				s = (s + 1) & mask;
+			return s;
+		}
+
+		/**
+		 * Returns the bucket of a key, -1 if no row has it
+		 */
+		int bucket(long key){
+			return slots[slot(key)];
+		}
+
+		void add(long key, int row){
+			int s = slot(key);
+
+			if(slots[s] == -1){
+				//A new bucket. Keep the slots no more than half full
+				if(noBuckets * 2 >= keys.length){
+					grow();
+					s = slot(key);
+				}
+
+				if(noBuckets == rows.length){
+					rows = Arrays.copyOf(rows, noBuckets * 2);
+					counts = Arrays.copyOf(counts, noBuckets * 2);
+				}
+
+				keys[s] = key;
+				slots[s] = noBuckets;
+				rows[noBuckets++] = new int[4];
+			}
+
+			int bucket = slots[s];
+			if(counts[bucket] == rows[bucket].length)
+				rows[bucket] = Arrays.copyOf(rows[bucket], counts[bucket] * 2);
+			rows[bucket][counts[bucket]++] = row;
+		}
+
+		/**
+		 * Double the number of slots, putting every key back in
+		 */
+		private void grow(){
+			long[] oldKeys = keys;
+			int[] oldSlots = slots;
+
+			keys = new long[oldKeys.length * 2];
+			slots = new int[oldKeys.length * 2];
+			Arrays.fill(slots, -1);
+
+			for(int s = 0; s < oldKeys.length; s++)
+				if(oldSlots[s] != -1){
+					int n = slot(oldKeys[s]);
+					keys[n] = oldKeys[s];
+					slots[n] = oldSlots[s];
+				}
+		}
+	}
+
+	/**
+	 * @author Ben
+	 * The rows found in the buckets of one sample. Reused by a thread between samples, so nothing is allocated
+	 * per search.
+	 */
+	static class Probe{
+		//Rows found, and the number found
+		int[] rows = new int[64];
+		int count;
+
+		//Rows found in this search are marked with the stamp (Cleared by moving on to the next stamp)
+		int[] seen = new int[0];
+		int stamp;
+
+		//The sample's slab along each direction of a table, which way the nearer edge is, and how near it is
+		int[] slabs = new int[0];
+		int[] across = new int[0];
+		double[] edges = new double[0];
+
+		/**
+		 * Empty the rows found, ready for a new sample
+		 * @param size Number of rows in the test set
+		 * @param noProjections Directions in each table
+		 */
+		void start(int size, int noProjections){
+			count = 0;
+
+			if(seen.length < size)
+				seen = new int[Math.max(size, seen.length * 2)];
+
+			if(slabs.length < noProjections){
+				slabs = new int[noProjections];
+				across = new int[noProjections];
+				edges = new double[noProjections];
+			}
+
+			//Every stamp has been used, so clear the marks
+			if(++stamp == Integer.MAX_VALUE){
+				Arrays.fill(seen, 0);
+				stamp = 1;
+			}
+		}
+
+		/**
+		 * Add the rows of a bucket not already found
+		 */
+		void add(Table table, long key){
+			int bucket = table.bucket(key);
+			if(bucket < 0)
+				return;
+
+			int[] bucketRows = table.rows[bucket];
+			for(int x = 0; x < table.counts[bucket]; x++){
+				int row = bucketRows[x];
+				if(seen[row] == stamp)
+					continue;
+				seen[row] = stamp;
+
+				if(count == rows.length)
+					rows = Arrays.copyOf(rows, count * 2);
+				rows[count++] = row;
+			}
+		}
+
+		int getCount(){
+			return count;
+		}
+
+		int getRow(int x){
+			return rows[x];
+		}
+	}
+}
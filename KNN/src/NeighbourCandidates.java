@@ -0,0 +1,252 @@
+/**
+ * @author Ben
+ * The nearest neighbours found so far of a sample, nearest first once read. Neighbours the same distance
+ * away are ordered by test set index, so the result does not depend on the order rows are offered in
+ * and matches a scan of the test set in order. Reused between queries so nothing is allocated per query.
+ *
+ * Up to HEAP_LIMIT neighbours are kept in a max-heap (The furthest at the top, to be replaced by a nearer
+ * row). For more, rows are collected in a buffer of twice the size, and the nearest i picked out with a
+ * quickselect whenever it fills, so each row offered costs the same however many neighbours are wanted.
+ * The neighbours are sorted the first time they are read.
+ */
+public class NeighbourCandidates {
+
+	//Most neighbours kept in a heap. Larger numbers are picked out of a buffer by quickselect
+	private static final int HEAP_LIMIT = 128;
+
+	//Distance to each neighbour and its test set index
+	private double[] distances = new double[0];
+	private int[] rows = new int[0];
+
+	//Number of neighbours wanted, and number of rows held
+	private int i;
+	private int count;
+
+	//Whether the neighbours are picked out by quickselect rather than kept in a heap
+	private boolean selecting;
+
+	//Rows must be nearer than this (Or as near, with a lower index) to be held
+	private double limitDistance;
+	private int limitRow;
+
+	//Whether the rows held have been sorted, nearest first (No more rows can be offered)
+	private boolean sorted;
+
+	/**
+	 * Empty the list ready for a new query
+	 * @param i Number of neighbours to find
+	 */
+	public void reset(int i){
+		reset(i, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Empty the list ready for a new query
+	 * @param i Number of neighbours to find
+	 * @param limit Rows must be nearer than this to be a neighbour
+	 */
+	public void reset(int i, double limit){
+		selecting = i > HEAP_LIMIT;
+
+		int capacity = selecting ? 2 * i : i;
+		if(distances.length < capacity){
+			distances = new double[capacity];
+			rows = new int[capacity];
+		}
+
+		this.i = i;
+		count = 0;
+		limitDistance = limit;
+		limitRow = -1;
+		sorted = false;
+	}
+
+	/**
+	 * Returns the distance a row must be within to be added (The ith nearest so far, or the limit
+	 * if i have not been found yet). Rows further than this can be skipped.
+	 */
+	public double worstDistance(){
+		return !selecting && count == i ? distances[0] : limitDistance;
+	}
+
+	/**
+	 * Returns true once at least i rows have been held
+	 */
+	public boolean isFull(){
+		return count >= i;
+	}
+
+	/**
+	 * Add a row if it is one of the i nearest so far
+	 * @param distance Distance to the row
+	 * @param row Test set index of the row
+	 */
+	public void offer(double distance, int row){
+		if(selecting){
+			if(!nearer(distance, row, limitDistance, limitRow))
+				return;
+
+			distances[count] = distance;
+			rows[count] = row;
+
+			//Buffer full, keep the nearest i and only take rows nearer than the furthest of them from now on
+			if(++count == distances.length){
+				select(0, count - 1, i - 1);
+				count = i;
+				limitDistance = distances[i - 1];
+				limitRow = rows[i - 1];
+			}
+		}else
+			if(count < i){
+				if(!(distance < limitDistance))
+					return;
+
+				//Add at the bottom of the heap and move it up above any nearer rows
+				int x = count++;
+				while(x > 0){
+					int parent = (x - 1) / 2;
+					if(!nearer(distances[parent], rows[parent], distance, row))
+						break;
+					distances[x] = distances[parent];
+					rows[x] = rows[parent];
+					x = parent;
+				}
+				distances[x] = distance;
+				rows[x] = row;
+			}else
+				if(nearer(distance, row, distances[0], rows[0]))
+					//The furthest neighbour drops out, and the new one takes its place
+					siftDown(0, distance, row, count);
+	}
+
+	/**
+	 * Returns true if the first row is nearer than the second, or the same distance away with a lower index
+	 */
+	private static boolean nearer(double distance, int row, double otherDistance, int otherRow){
+		return distance < otherDistance || (distance == otherDistance && row < otherRow);
+	}
+
+	/**
+	 * Put a row at x of the heap of the first size rows and move it down below any further rows
+	 */
+	private void siftDown(int x, double distance, int row, int size){
+		while(true){
+			int child = 2 * x + 1;
+			if(child >= size)
+				break;
+
+			//The further of the two children
+			if(child + 1 < size && nearer(distances[child], rows[child], distances[child + 1], rows[child + 1]))
+				child++;
+
+			if(!nearer(distance, row, distances[child], rows[child]))
+				break;
+
+			distances[x] = distances[child];
+			rows[x] = rows[child];
+			x = child;
+		}
+		distances[x] = distance;
+		rows[x] = row;
+	}
+
+	/**
+	 * Reorder rows left to right (inclusive) so the nth nearest is at n, with nearer rows before it and
+	 * further rows after it (Hoare's quickselect)
+	 */
+	private void select(int left, int right, int n){
+		while(right > left){
+			//Median of three as the pivot, so rows offered in order do not give the worst case
+			int middle = (left + right) >>> 1;
+			if(nearer(distances[middle], rows[middle], distances[left], rows[left]))
+				swap(middle, left);
+			if(nearer(distances[right], rows[right], distances[left], rows[left]))
+				swap(right, left);
+			if(nearer(distances[right], rows[right], distances[middle], rows[middle]))
+				swap(right, middle);
+			double pivotDistance = distances[middle];
+			int pivotRow = rows[middle];
+
+			int x = left;
+			int y = right;
+			while(x <= y){
+				while(nearer(distances[x], rows[x], pivotDistance, pivotRow))
+					x++;
+				while(nearer(pivotDistance, pivotRow, distances[y], rows[y]))
+					y--;
+				if(x <= y)
+					swap(x++, y--);
+			}
+
+			if(n <= y)
+				right = y;
+			else if(n >= x)
+				left = x;
+			else
+				return;
+		}
+	}
+
+	private void swap(int x, int y){
+		double distance = distances[x];
+		distances[x] = distances[y];
+		distances[y] = distance;
+
+		int row = rows[x];
+		rows[x] = rows[y];
+		rows[y] = row;
+	}
+
+	/**
+	 * Sort the nearest i rows held, nearest first, ready to be read
+	 */
+	private void sort(){
+		if(selecting && count > i){
+			select(0, count - 1, i - 1);
+			count = i;
+		}
+
+		//Rows picked out by quickselect are in no order, so are made into a heap first
+		if(selecting)
+			for(int x = count / 2 - 1; x >= 0; x--)
+				siftDown(x, distances[x], rows[x], count);
+
+		//Heap sort: take the furthest from the top of the heap and put it after the rest
+		for(int size = count - 1; size > 0; size--){
+			double distance = distances[size];
+			int row = rows[size];
+			distances[size] = distances[0];
+			rows[size] = rows[0];
+			siftDown(0, distance, row, size);
+		}
+
+		sorted = true;
+	}
+
+	/**
+	 * Returns the number of neighbours found (Up to i). No more rows can be offered once the neighbours are read
+	 */
+	public int getFound(){
+		if(!sorted)
+			sort();
+		return count;
+	}
+
+	/**
+	 * Returns the distance to the xth nearest neighbour (0 is the nearest)
+	 */
+	public double getDistance(int x){
+		if(!sorted)
+			sort();
+		return distances[x];
+	}
+
+	/**
+	 * Returns the test set index of the xth nearest neighbour (0 is the nearest)
+	 */
+	public int getRow(int x){
+		if(!sorted)
+			sort();
+		return rows[x];
+	}
+}
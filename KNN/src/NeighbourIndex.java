@@ -0,0 +1,28 @@
+/**
+ * @author Ben
+ * Finds the nearest neighbours of a sample in a standardised test set, using a subset of the dimensions.
+ * KDTree and BallTree give exactly the same neighbours as scanning every row of the test set, LSHIndex only
+ * checks the rows most likely to be near so may miss some. Implementations are only changed by addRows,
+ * so can be queried by any number of threads at once while rows are not being added.
+ */
+public interface NeighbourIndex {
+
+	/**
+	 * Find the nearest neighbours of the sample. The number of neighbours wanted and the distance 
+	 * they must be within are set on the candidates before the call.
+	 * @param sample The standardised values of the 12 hour period
+	 * @param candidates Filled with the nearest neighbours, nearest first
+	 */
+	public void findNeighbours(double[] sample, NeighbourCandidates candidates);
+	
+	/**
+	 * Update the index after rows have been added to the end of the test set and the test set has been
+	 * re-standardised with the new mean/SD.
+	 * @param testSet The new standardised test set, indexed [dimension][row]
+	 * @param size Number of rows in the new test set. Rows the index does not hold yet are added
+	 * @param mean The mean of each dimension the new test set was standardised with
+	 * @param sd The standard deviation of each dimension the new test set was standardised with
+	 * @return false if so many rows have been added that rebuilding the index would be quicker to search
+	 */
+	public boolean addRows(double[][] testSet, int size, double[] mean, double[] sd);
+}
@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * @author Ben
+ * The accuracy of every i/method/dimension subset configuration tested by a search, 
+ * which can be ranked, or queried for the best and average accuracy.
+ */
+public class SubsetSearchResults {
+
+	//Every result, ordered by subset index, then i, then method
+	private ArrayList<AccuracyResult> results;
+	
+	/*Highest accuracy first. Equal accuracies are ranked in search order (Lowest i, then
+	 * lowest subset index), matching the first best found by a sequential search */
+	private static final Comparator<AccuracyResult> RANKING = new Comparator<AccuracyResult>(){
+		@Override
+		public int compare(AccuracyResult o1, AccuracyResult o2) {
+			if(o1.getAccuracy() != o2.getAccuracy())
+				return o1.getAccuracy() > o2.getAccuracy() ? -1 : 1;
+			if(o1.getI() != o2.getI())
+				return o1.getI() < o2.getI() ? -1 : 1;
+			if(o1.getSubsetIndex() != o2.getSubsetIndex())
+				return o1.getSubsetIndex() < o2.getSubsetIndex() ? -1 : 1;
+			if(o1.getMethod() != o2.getMethod())
+				return o1.getMethod() < o2.getMethod() ? -1 : 1;
+			return 0;
+		}
+	};
+	
+	//Orders results by subset index, then i, then method, whatever order they were found in
+	private static final Comparator<AccuracyResult> SUBSET_ORDER = new Comparator<AccuracyResult>(){
+		@Override
+		public int compare(AccuracyResult o1, AccuracyResult o2) {
+			if(o1.getSubsetIndex() != o2.getSubsetIndex())
+				return o1.getSubsetIndex() < o2.getSubsetIndex() ? -1 : 1;
+			if(o1.getI() != o2.getI())
+				return o1.getI() < o2.getI() ? -1 : 1;
+			if(o1.getMethod() != o2.getMethod())
+				return o1.getMethod() < o2.getMethod() ? -1 : 1;
+			return 0;
+		}
+	};
+	
+	public SubsetSearchResults(ArrayList<AccuracyResult> results){
+		this.results = new ArrayList<AccuracyResult>(results);
+		Collections.sort(this.results, SUBSET_ORDER);
+	}
+	
+	/**
+	 * Returns every result, best first
+	 * @return Ranked list of results
+	 */
+	public ArrayList<AccuracyResult> getRankedResults(){
+		ArrayList<AccuracyResult> ranked = new ArrayList<AccuracyResult>(results);
+		Collections.sort(ranked, RANKING);
+		return ranked;
+	}
+	
+	/**
+	 * Returns the best result using the given method for any i. null if none were tested.
+	 * @param method 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @return The best result
+	 */
+	public AccuracyResult getBest(int method){
+		AccuracyResult best = null;
+		
+		for(AccuracyResult result : results)
+			if(result.getMethod() == method && (best == null || RANKING.compare(result, best) < 0))
+				best = result;
+		
+		return best;
+	}
+	
+	/**
+	 * Returns the best result for the given i and method. null if none were tested.
+	 * @param i KNN-i
+	 * @param method 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @return The best result
+	 */
+	public AccuracyResult getBest(int i, int method){
+		AccuracyResult best = null;
+		
+		for(AccuracyResult result : results)
+			if(result.getI() == i && result.getMethod() == method && (best == null || RANKING.compare(result, best) < 0))
+				best = result;
+		
+		return best;
+	}
+	
+	/**
+	 * Returns the average accuracy of every dimension subset tested for the given i and method.
+	 * @param i KNN-i
+	 * @param method 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @return The average percentage
+	 */
+	public double getAverage(int i, int method){
+		//Stores the percentages, in the order the subsets were searched
+		ArrayList<Double> percentages = new ArrayList<Double>();
+		
+		for(AccuracyResult result : results)
+			if(result.getI() == i && result.getMethod() == method)
+				percentages.add(result.getAccuracy());
+		
+		return ArrayListMath.mean(percentages);
+	}
+}
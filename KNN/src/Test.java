@@ -1,3 +1,6 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
 
 public class Test {
 
@@ -7,6 +10,18 @@ public class Test {
 	public static void main(String[] args){
 
 		Test t = new Test();
+		
+		//"check" runs the checks below instead of opening the GUI
+		if(args.length > 0 && args[0].equals("check")){
+			boolean passed = t.checkResultCache();
+			passed &= t.checkNeighbourCandidates();
+			passed &= t.checkIndex(TunaKNNClassifier.KD_TREE);
+			passed &= t.checkIndex(TunaKNNClassifier.BALL_TREE);
+			passed &= t.checkIndex(TunaKNNClassifier.LSH);
+			System.out.println(passed ? "All checks passed" : "Checks failed");
+			System.exit(passed ? 0 : 1);
+		}
+		
 		//t.printOutBest();
 		//t.printOutBestsPerI();
 		//t.printOutAverages();
@@ -19,12 +34,11 @@ public class Test {
 	 *i/method combination.
 	 */
 	public void printOutAverages(){
-		for(int i = 1; i <= 10; i++){
-			knn.findAverageAccuracy(i, 1);
-			knn.findAverageAccuracy(i, 2);
-			knn.findAverageAccuracy(i, 3);
-			knn.findAverageAccuracy(i, 4);
-		}
+		SubsetSearchResults results = knn.searchSubsets(1, 10, new int[]{1,2,3,4});
+		
+		for(int i = 1; i <= 10; i++)
+			for(int method = 1; method <= 4; method++)
+				System.out.printf("Average percentage for KNN-%d Method: %d is %.2f \n", i, method, results.getAverage(i, method));
 	}
 	
 	/**
@@ -32,10 +46,10 @@ public class Test {
 	 * between and including the two i values in the for loop.
 	 */
 	public void printOutBest(){
-			knn.findBestAccuracy(1,10, 1);
-			knn.findBestAccuracy(1,10, 2);
-			knn.findBestAccuracy(1,10, 3);
-			knn.findBestAccuracy(1,10, 4);
+		SubsetSearchResults results = knn.searchSubsets(1, 10, new int[]{1,2,3,4});
+		
+		for(int method = 1; method <= 4; method++)
+			printResult(results.getBest(method));
 	}
 	
 	/**
@@ -43,11 +57,269 @@ public class Test {
 	 * the dimensions subset producing each accuracy.
 	 */
 	public void printOutBestsPerI(){
-		for(int i = 1; i <= 10; i++){
-			knn.findBestAccuracy(i,i, 1);
-			knn.findBestAccuracy(i,i, 2);
-			knn.findBestAccuracy(i,i, 3);
-			knn.findBestAccuracy(i,i, 4);
+		SubsetSearchResults results = knn.searchSubsets(1, 10, new int[]{1,2,3,4});
+		
+		for(int i = 1; i <= 10; i++)
+			for(int method = 1; method <= 4; method++)
+				printResult(results.getBest(i, method));
+	}
+	
+	/**
+	 * Prints out the accuracy, i and dimension subset of a result
+	 */
+	private void printResult(AccuracyResult result){
+		//Print out the highest percentage, along with the associated i
+		System.out.printf("Best accuracy achieved: %.2f \n", result.getAccuracy());
+		System.out.println("KNN-" + result.getI());
+
+		//Print out the associated dimension combination
+		System.out.println(result.getDimensionNames());
+	}
+	
+	/**
+	 * Checks a subset search warms the result cache, so oneLeftOutTest then answers every configuration
+	 * from the cache with the accuracy it gives uncached, and answers the same again a second time. Also
+	 * checks a search with caching off leaves nothing cached.
+	 * @return true if every configuration was cached and every accuracy matched
+	 */
+	public boolean checkResultCache(){
+		int[] methods = new int[]{1,2,3,4};
+		
+		TunaKNNClassifier warmed = new TunaKNNClassifier(knn.getModel());
+		SubsetSearchResults results = warmed.searchSubsets(1, 10, methods);
+		
+		TunaKNNClassifier uncached = new TunaKNNClassifier(knn.getModel());
+		uncached.setCachingResults(false);
+		uncached.searchSubsets(1, 2, methods);
+		
+		int mismatches = 0;
+		for(AccuracyResult result : results.getRankedResults()){
+			boolean[] dimensions = result.getDimensions();
+			
+			//Only the search has run, so the cache must hold this already
+			boolean cached = warmed.isCached(dimensions, result.getI(), result.getMethod());
+			boolean leftUncached = !uncached.isCached(dimensions, result.getI(), result.getMethod());
+			
+			double expected = uncached.oneLeftOutTest(dimensions, result.getI(), result.getMethod());
+			double first = warmed.oneLeftOutTest(dimensions, result.getI(), result.getMethod());
+			double second = warmed.oneLeftOutTest(dimensions, result.getI(), result.getMethod());
+			
+			if(!cached || !leftUncached || first != expected || second != expected || result.getAccuracy() != expected){
+				if(mismatches++ < 10)
+					System.out.printf("KNN-%d Method: %d %s: %s after search, %.2f uncached, %.2f cached, %.2f cached again, %.2f by subset search \n",
+							result.getI(), result.getMethod(), result.getDimensionNames(), cached ? "cached" : "not cached",
+							expected, first, second, result.getAccuracy());
+			}
 		}
+		
+		System.out.printf("Result cache: %d of %d configurations differ \n", mismatches, results.getRankedResults().size());
+		return mismatches == 0;
+	}
+	
+	/**
+	 * Checks NeighbourCandidates against sorting every row by distance (Then index), for numbers of
+	 * neighbours kept in the heap and picked out by quickselect, with many rows the same distance away,
+	 * with a distance limit, and with as many or more neighbours wanted than there are rows.
+	 * @return true if every query found the same neighbours
+	 */
+	public boolean checkNeighbourCandidates(){
+		Random random = new Random(24);
+		
+		//Reused for every query, as the classifier does
+		NeighbourCandidates candidates = new NeighbourCandidates();
+		
+		int queries = 0;
+		int mismatches = 0;
+		for(int trial = 0; trial < 300; trial++){
+			int n = random.nextInt(trial % 4 == 0 ? 20 : 1000);
+			
+			//Few distinct distances (Many ties), any distance, or a coarse grid of distances
+			double[] distances = new double[n];
+			for(int y = 0; y < n; y++)
+				switch(trial % 3){
+				case 0: distances[y] = random.nextInt(5); break;
+				case 1: distances[y] = random.nextDouble(); break;
+				default: distances[y] = random.nextInt(50) * 0.25;
+				}
+			double limit = trial % 5 == 0 ? 2.5 : Double.POSITIVE_INFINITY;
+			
+			//Rows are offered in a random order
+			int[] order = shuffledRows(n, random);
+			Integer[] expected = sortedRows(distances);
+			int within = 0;
+			while(within < n && distances[expected[within]] < limit)
+				within++;
+			
+			for(int i : new int[]{1, 2, 17, 128, 129, 300, n, n + 5}){
+				if(i < 1)
+					continue;
+				queries++;
+				
+				candidates.reset(i, limit);
+				for(int y : order)
+					candidates.offer(distances[y], y);
+				
+				boolean same = candidates.getFound() == Math.min(i, within);
+				for(int x = 0; same && x < candidates.getFound(); x++)
+					same = candidates.getRow(x) == expected[x] && candidates.getDistance(x) == distances[expected[x]];
+				
+				if(!same && mismatches++ < 10)
+					System.out.printf("NeighbourCandidates: %d rows, i %d, limit %.2f: %d found, %d expected \n", 
+							n, i, limit, candidates.getFound(), Math.min(i, within));
+			}
+		}
+		
+		System.out.printf("NeighbourCandidates: %d of %d queries differ \n", mismatches, queries);
+		return mismatches == 0;
+	}
+	
+	/**
+	 * Checks an index finds exactly the neighbours a scan of every row does, on a test set with many
+	 * repeated values, for several dimension subsets and numbers of neighbours, before and after rows are
+	 * added. LSHIndex only finds the exact neighbours when its buckets hold fewer than i rows and it checks
+	 * every row, so only those searches are compared for it (With narrow slabs so there are plenty).
+	 * @param indexType KD_TREE, BALL_TREE or LSH
+	 * @return true if every search compared found the same neighbours
+	 */
+	public boolean checkIndex(int indexType){
+		Random random = new Random(indexType);
+		String name = indexType == TunaKNNClassifier.KD_TREE ? "KDTree" : indexType == TunaKNNClassifier.BALL_TREE ? "BallTree" : "LSHIndex";
+		
+		//Rows on a coarse grid around a few centres, so many are the same distance from a sample
+		int builtRows = 2000;
+		int addedRows = 500;
+		double[][] values = new double[builtRows + addedRows][8];
+		int[] classIds = new int[values.length];
+		double[][] centres = new double[4][8];
+		for(double[] centre : centres)
+			for(int x = 0; x < 8; x++)
+				centre[x] = random.nextInt(40);
+		for(int y = 0; y < values.length; y++)
+			for(int x = 0; x < 8; x++)
+				values[y][x] = centres[y % centres.length][x] + Math.round(random.nextGaussian() * 6) / 2.0;
+		
+		FeatureMatrix matrix = new FeatureMatrix(8);
+		matrix.getClassDictionary().add("A");
+		for(int y = 0; y < builtRows; y++)
+			matrix.addRow(values[y], 0);
+		TunaKNNModel built = new TunaKNNModel(matrix);
+		TunaKNNModel added = built.withRows(Arrays.copyOfRange(values, builtRows, values.length), Arrays.copyOfRange(classIds, builtRows, values.length));
+		
+		int[][] subsets = {{0,1,2,3,4,5,6,7}, {0}, {1,5}, {0,2,3,7}};
+		int searches = 0;
+		int mismatches = 0;
+		for(int[] included : subsets){
+			boolean[] dimensions = new boolean[8];
+			for(int d : included)
+				dimensions[d] = true;
+			
+			NeighbourIndex index = null;
+			for(TunaKNNModel model : new TunaKNNModel[]{built, added}){
+				double[][] testSet = model.getStandardisedTestSet(dimensions);
+				int size = model.getTestSetSize();
+				double[] mean = new double[8];
+				double[] sd = new double[8];
+				for(int x = 0; x < 8; x++){
+					mean[x] = model.getMean(x);
+					sd[x] = model.getSD(x);
+				}
+				
+				if(index == null){
+					switch(indexType){
+					case TunaKNNClassifier.KD_TREE: index = new KDTree(testSet, size, included); break;
+					case TunaKNNClassifier.BALL_TREE: index = new BallTree(testSet, size, included, mean, sd); break;
+					default: index = new LSHIndex(testSet, size, included, mean, sd, 4, 0, 0.05, 2);
+					}
+				}else
+					index.addRows(testSet, size, mean, sd);
+				
+				int[] counts = compareWithScan(index, testSet, size, included, random);
+				searches += counts[0];
+				mismatches += counts[1];
+			}
+		}
+		
+		System.out.printf("%s: %d of %d searches differ from a scan \n", name, mismatches, searches);
+		return mismatches == 0 && searches > 0;
+	}
+	
+	/**
+	 * Search an index for the neighbours of test set rows and of random points, and compare them with a scan
+	 * @return The number of searches compared, and the number that differed
+	 */
+	private int[] compareWithScan(NeighbourIndex index, double[][] testSet, int size, int[] included, Random random){
+		NeighbourCandidates candidates = new NeighbourCandidates();
+		LSHIndex.Probe probe = new LSHIndex.Probe();
+		int[] counts = new int[2];
+		
+		for(int s = 0; s < 60; s++){
+			//Half the samples are rows of the test set (So some rows are 0 away), half are random points
+			double[] sample = new double[8];
+			int row = random.nextInt(size);
+			for(int d : included)
+				sample[d] = s % 2 == 0 ? testSet[d][row] : random.nextGaussian() * 1.5;
+			
+			double[] distances = new double[size];
+			for(int y = 0; y < size; y++)
+				distances[y] = IndexMath.distance(testSet, included, sample, y);
+			Integer[] expected = sortedRows(distances);
+			
+			for(int i : new int[]{1, 7, 50, 200, size, size + 3}){
+				//Only compare LSHIndex searches that fall back to checking every row
+				if(index instanceof LSHIndex){
+					((LSHIndex) index).collect(sample, probe);
+					if(probe.getCount() >= i)
+						continue;
+				}
+				counts[0]++;
+				
+				candidates.reset(i);
+				index.findNeighbours(sample, candidates);
+				
+				boolean same = candidates.getFound() == Math.min(i, size);
+				for(int x = 0; same && x < candidates.getFound(); x++)
+					same = candidates.getRow(x) == expected[x] && candidates.getDistance(x) == distances[expected[x]];
+				
+				if(!same)
+					counts[1]++;
+			}
+		}
+		
+		return counts;
+	}
+	
+	/**
+	 * Returns the rows 0 to n - 1 in a random order
+	 */
+	private static int[] shuffledRows(int n, Random random){
+		int[] rows = new int[n];
+		for(int y = 0; y < n; y++)
+			rows[y] = y;
+		for(int y = n - 1; y > 0; y--){
+			int x = random.nextInt(y + 1);
+			int row = rows[x];
+			rows[x] = rows[y];
+			rows[y] = row;
+		}
+		return rows;
+	}
+	
+	/**
+	 * Returns every row, sorted by distance then by index (The order neighbours are ranked in)
+	 */
+	private static Integer[] sortedRows(final double[] distances){
+		Integer[] rows = new Integer[distances.length];
+		for(int y = 0; y < rows.length; y++)
+			rows[y] = y;
+		
+		Arrays.sort(rows, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if(distances[a] != distances[b])
+					return distances[a] < distances[b] ? -1 : 1;
+				return a.compareTo(b);
+			}
+		});
+		return rows;
 	}
 }
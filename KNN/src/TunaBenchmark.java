@@ -0,0 +1,656 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Ben
+ * Times the classifier's hot paths on synthetic test sets of different sizes and numbers of active
+ * dimensions, so changes to them can be measured. Each benchmark is warmed up before it is timed, and
+ * the time per operation is the mean of several timed iterations (With the standard deviation across them).
+ *
+ * Benchmarks: load (TunaDataFileRead.readMatrix), stats (ArrayListMath mean/SD/scaling), classify (One
+ * classify() call), batch (Batch classify on a pool of threads), loo (A full oneLeftOutTest), sweep
+ * (findBestAccuracy over every dimension subset) and approx (evaluateApproximateSearch, with how well the
+ * approximate search agreed with the exact one printed under the timing). The distance kernels are timed on their own finding the
+ * distance from one point to every row: powloop (The original loop, with Math.pow and a check of every
+ * dimension), then euclidean, manhattan, chebyshev, weighted and cosine (DistanceKernel).
+ *
+ * Arguments (All optional): rows=100,1000,... dims=1,2,... bench=classify,batch,... index=linear|kd|ball|lsh
+ * metric=0-4 (The distance metric the classifier uses, see DistanceKernel) abandon=on|off (Early abandoning of rows)
+ * lsh=tables,projections,width,probes (Settings of the approximate search, see setApproximateSearch)
+ * More than 8 dims gives an extended synthetic feature set with that many dimensions, all active.
+ * Large test sets need a bigger heap (e.g. -Xmx4g for 10^7 rows). The tests that are quadratic in the
+ * number of rows (loo, sweep) are skipped above MAX_LOO_ROWS and MAX_SWEEP_ROWS.
+ */
+public class TunaBenchmark {
+
+	//Default test set sizes and numbers of active dimensions
+	private static final int[] DEFAULT_ROWS = {100, 1000, 10000, 100000};
+	private static final int[] DEFAULT_DIMS = {1, 2, 4, 8};
+
+	//Largest test sets the one left out test and the subset sweep are run on
+	private static final int MAX_LOO_ROWS = 20000;
+	private static final int MAX_SWEEP_ROWS = 2000;
+
+	//Iterations run before timing starts, iterations timed, and the least time each iteration runs for (ms)
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURED_ITERATIONS = 5;
+	private static final long MIN_ITERATION_TIME = 200;
+
+	//The number of test points classified, and the i and method used
+	private static final int NO_QUERIES = 1024;
+	private static final int I = 5;
+	private static final int METHOD = 1;
+
+	//Classifications of the synthetic test sets (Each is a cluster with its own centre)
+	private static final String[] CLASS_LABELS = {"S", "T", "U", "V", "TX"};
+	private static final int NO_CLASSES = CLASS_LABELS.length;
+
+	//Results of every operation are added to this, so the JIT cannot skip the work
+	private static long sink;
+
+	//Distances worked out per kernel call, as the classifier scans the test set in blocks
+	private static final int DISTANCE_BLOCK = 2048;
+
+	private int indexType = TunaKNNClassifier.LINEAR_SCAN;
+	private int metric = DistanceKernel.SQUARED_EUCLIDEAN;
+	private boolean earlyAbandon = false;
+	private ExecutorService executor;
+
+	//Settings of the approximate search (0 projections and width are picked by the index)
+	private int lshTables = 8;
+	private int lshProjections = 0;
+	private double lshWidth = 0;
+	private int lshProbes = 2;
+
+	/**
+	 * @author Ben
+	 * One operation to be timed. setUp is called (untimed) for each test set size and number of
+	 * dimensions, then run is called repeatedly.
+	 */
+	private abstract class Benchmark {
+		final String name;
+
+		//What the units counted by run are (e.g. "rows" or "queries"), for the results table
+		final String unit;
+
+		Benchmark(String name, String unit){
+			this.name = name;
+			this.unit = unit;
+		}
+
+		/**
+		 * @return Why the benchmark is not run for this size/number of dimensions, null if it is
+		 */
+		String skip(int rows, int dims){
+			return null;
+		}
+
+		abstract void setUp(int rows, int dims) throws IOException;
+
+		/**
+		 * Do the operation once
+		 * @return The number of units (e.g. rows read) done
+		 */
+		abstract int run();
+
+		void tearDown(){
+		}
+	}
+
+	/**
+	 * Builds a synthetic test set. Each classification is a cluster of normally distributed points
+	 * around its own centre, so classifications overlap as in the real data.
+	 * @param rows Number of rows
+	 * @param dims Number of dimensions
+	 * @param seed Seed for the random values (The same seed gives the same test set)
+	 * @return The test set
+	 */
+	public static FeatureMatrix synthetic(int rows, int dims, long seed){
+		Random random = new Random(seed);
+
+		//Centre and spread of each class in each dimension (The same for every seed)
+		Random centres = new Random(42);
+		double[][] centre = new double[NO_CLASSES][dims];
+		double[][] spread = new double[NO_CLASSES][dims];
+		for(int c = 0; c < NO_CLASSES; c++)
+			for(int x = 0; x < dims; x++){
+				centre[c][x] = centres.nextDouble() * 100;
+				spread[c][x] = 5 + centres.nextDouble() * 20;
+			}
+
+		double[][] columns = new double[dims][rows];
+		int[] classIds = new int[rows];
+		for(int y = 0; y < rows; y++){
+			int c = random.nextInt(NO_CLASSES);
+			classIds[y] = c;
+			for(int x = 0; x < dims; x++)
+				//Rounded to 2 decimal places, as in data.txt
+				columns[x][y] = Math.round((centre[c][x] + random.nextGaussian() * spread[c][x]) * 100) / 100.0;
+		}
+
+		return new FeatureMatrix(columns, classIds, rows, new ClassDictionary(CLASS_LABELS));
+	}
+
+	/**
+	 * Returns unclassified points drawn from the same distribution as synthetic()
+	 */
+	private static double[][] queries(int count, int dims){
+		FeatureMatrix points = synthetic(count, dims, 7);
+		double[][] queries = new double[count][dims];
+		for(int y = 0; y < count; y++)
+			for(int x = 0; x < dims; x++)
+				queries[y][x] = points.get(x, y);
+		return queries;
+	}
+
+	/**
+	 * Returns an array with the first dims of noDimensions dimensions included
+	 */
+	private static boolean[] firstDimensions(int dims, int noDimensions){
+		boolean[] dimensions = new boolean[noDimensions];
+		for(int x = 0; x < dims; x++)
+			dimensions[x] = true;
+		return dimensions;
+	}
+
+	/**
+	 * Writes a test set as a data file, in the format of data.txt
+	 */
+	private static void writeDataFile(FeatureMatrix testSet, File file) throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(file), 1 << 16);
+		try {
+			for(int x = 0; x < testSet.getNoDimensions(); x++)
+				out.write(FeatureMatrix.dimensionName(x).replace(" ", "") + " ");
+			out.write("Class\n");
+
+			StringBuilder line = new StringBuilder();
+			for(int y = 0; y < testSet.size(); y++){
+				line.setLength(0);
+				for(int x = 0; x < testSet.getNoDimensions(); x++)
+					line.append(testSet.get(x, y)).append(' ');
+				line.append(testSet.getClassification(y)).append('\n');
+				out.write(line.toString());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the number of dimensions in the synthetic test sets when dims are active: 8 as in data.txt, or
+	 * an extended feature set of dims dimensions
+	 */
+	private static int features(int dims){
+		return Math.max(8, dims);
+	}
+
+	/**
+	 * A classifier of a synthetic test set with dims active dimensions, using the options chosen
+	 */
+	private TunaKNNClassifier classifier(int rows, int dims){
+		return classifier(new TunaKNNModel(synthetic(rows, features(dims), 1)));
+	}
+
+	/**
+	 * A classifier of the model given, using the index type, distance metric, early abandoning and approximate search chosen
+	 */
+	private TunaKNNClassifier classifier(TunaKNNModel model){
+		TunaKNNClassifier knn = new TunaKNNClassifier(model);
+		knn.setNeighbourIndex(indexType);
+		knn.setApproximateSearch(lshTables, lshProjections, lshWidth, lshProbes);
+		knn.setDistanceMetric(metric, weights(model.getNoDimensions()));
+		knn.setEarlyAbandon(earlyAbandon);
+		return knn;
+	}
+
+	/**
+	 * Returns the dimension weights used for Weighted Euclidean distance (1, 2, 3...)
+	 */
+	private static double[] weights(int noDimensions){
+		double[] weights = new double[noDimensions];
+		for(int x = 0; x < noDimensions; x++)
+			weights[x] = x + 1;
+		return weights;
+	}
+
+	/**
+	 * @author Ben
+	 * Times finding the distance from one standardised point to every row of a standardised test set, a block
+	 * of rows at a time. Subclasses work out the distances to one block.
+	 */
+	private abstract class DistanceBenchmark extends Benchmark {
+		double[][] testSet;
+		boolean[] dimensions;
+		double[][] queries;
+		double[] distances = new double[DISTANCE_BLOCK];
+		int rows;
+		int next;
+
+		DistanceBenchmark(String name){
+			super(name, "distances");
+		}
+
+		@Override
+		void setUp(int rows, int dims){
+			int features = features(dims);
+			TunaKNNModel model = new TunaKNNModel(synthetic(rows, features, 1));
+			dimensions = firstDimensions(dims, features);
+			testSet = model.getStandardisedTestSet(firstDimensions(features, features));
+			this.rows = rows;
+
+			queries = queries(NO_QUERIES, features);
+			for(double[] query : queries)
+				for(int x = 0; x < features; x++)
+					query[x] = model.standardise(x, query[x]);
+		}
+
+		@Override
+		int run(){
+			double[] sample = queries[next];
+			next = (next + 1) % queries.length;
+
+			for(int from = 0; from < rows; from += DISTANCE_BLOCK){
+				int to = Math.min(rows, from + DISTANCE_BLOCK);
+				distances(sample, from, to);
+				sink += Double.doubleToLongBits(distances[to - from - 1]);
+			}
+			return rows;
+		}
+
+		/**
+		 * Work out the distance from the sample to rows from (inclusive) to to (exclusive)
+		 */
+		abstract void distances(double[] sample, int from, int to);
+	}
+
+	/**
+	 * Returns a benchmark of a distance kernel
+	 */
+	private Benchmark kernelBenchmark(String name, final int metric){
+		return new DistanceBenchmark(name){
+			DistanceKernel kernel;
+			double[][] packedColumns;
+			double[] packedSample;
+			double[] packedCentre;
+			double[] packedScale;
+			int noIncluded;
+
+			@Override
+			void setUp(int rows, int dims){
+				super.setUp(rows, dims);
+				kernel = DistanceKernel.create(metric, weights(dims));
+				noIncluded = dims;
+				packedColumns = new double[dims][];
+				packedSample = new double[dims];
+				packedCentre = new double[dims];
+				packedScale = new double[dims];
+				for(int x = 0; x < dims; x++){
+					packedColumns[x] = testSet[x];
+					packedScale[x] = kernel.packScale(x, 1);
+				}
+			}
+
+			@Override
+			void distances(double[] sample, int from, int to){
+				System.arraycopy(sample, 0, packedSample, 0, noIncluded);
+				kernel.distances(packedColumns, packedSample, packedCentre, packedScale, noIncluded, from, to, distances);
+			}
+		};
+	}
+
+	/**
+	 * @return Every benchmark, in the order they are run
+	 */
+	private ArrayList<Benchmark> benchmarks(){
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new Benchmark("load", "rows"){
+			File file;
+
+			@Override
+			String skip(int rows, int dims){
+				return dims == 8 ? null : "every dimension is read";
+			}
+
+			@Override
+			void setUp(int rows, int dims) throws IOException {
+				file = File.createTempFile("tuna", ".txt");
+				file.deleteOnExit();
+				writeDataFile(synthetic(rows, 8, 1), file);
+			}
+
+			@Override
+			int run(){
+				FeatureMatrix matrix = TunaDataFileRead.readMatrix(file.getPath());
+				sink += matrix.size();
+				return matrix.size();
+			}
+
+			@Override
+			void tearDown(){
+				file.delete();
+			}
+		});
+
+		benchmarks.add(new Benchmark("stats", "values"){
+			double[][] columns;
+			double[] standardised;
+			int rows;
+
+			@Override
+			void setUp(int rows, int dims){
+				FeatureMatrix testSet = synthetic(rows, dims, 1);
+				this.rows = rows;
+				columns = new double[dims][];
+				for(int x = 0; x < dims; x++)
+					columns[x] = testSet.getColumn(x);
+				standardised = new double[rows];
+			}
+
+			@Override
+			int run(){
+				//Mean, SD and standard scores of each active dimension
+				for(int x = 0; x < columns.length; x++){
+					double mean = ArrayListMath.mean(columns[x], rows);
+					double sd = ArrayListMath.standardDeviation(columns[x], rows, mean);
+					ArrayListMath.scaleDataByStandardScore(columns[x], rows, mean, sd, standardised);
+					sink += Double.doubleToLongBits(standardised[rows - 1]);
+				}
+				return rows * columns.length;
+			}
+		});
+
+		benchmarks.add(new Benchmark("classify", "queries"){
+			TunaKNNClassifier knn;
+			boolean[] dimensions;
+			double[][] queries;
+			int next;
+
+			@Override
+			void setUp(int rows, int dims){
+				knn = classifier(rows, dims);
+				dimensions = firstDimensions(dims, features(dims));
+				queries = queries(NO_QUERIES, features(dims));
+			}
+
+			@Override
+			int run(){
+				String classification = knn.classify(dimensions, queries[next], I, METHOD);
+				next = (next + 1) % queries.length;
+				sink += classification.length();
+				return 1;
+			}
+		});
+
+		benchmarks.add(new Benchmark("batch", "queries"){
+			TunaKNNClassifier knn;
+			boolean[] dimensions;
+			double[][] queries;
+
+			@Override
+			void setUp(int rows, int dims){
+				knn = classifier(rows, dims);
+				dimensions = firstDimensions(dims, features(dims));
+				queries = queries(NO_QUERIES, features(dims));
+			}
+
+			@Override
+			int run(){
+				String[] classifications = knn.classify(dimensions, queries, I, METHOD, executor);
+				sink += classifications[classifications.length - 1].length();
+				return queries.length;
+			}
+		});
+
+		benchmarks.add(new Benchmark("loo", "samples"){
+			TunaKNNModel model;
+			boolean[] dimensions;
+			int rows;
+
+			@Override
+			String skip(int rows, int dims){
+				return rows <= MAX_LOO_ROWS ? null : "more than " + MAX_LOO_ROWS + " rows";
+			}
+
+			@Override
+			void setUp(int rows, int dims){
+				model = new TunaKNNModel(synthetic(rows, features(dims), 1));
+				dimensions = firstDimensions(dims, features(dims));
+				this.rows = rows;
+			}
+
+			@Override
+			int run(){
+				//A new classifier each time, as results are cached
+				TunaKNNClassifier knn = classifier(model);
+				sink += Double.doubleToLongBits(knn.oneLeftOutTest(dimensions, I, METHOD));
+				return rows;
+			}
+		});
+
+		benchmarks.add(new Benchmark("sweep", "tests"){
+			TunaKNNModel model;
+			int tests;
+
+			@Override
+			String skip(int rows, int dims){
+				if(dims > 8)
+					return "too many subsets";
+				return rows <= MAX_SWEEP_ROWS ? null : "more than " + MAX_SWEEP_ROWS + " rows";
+			}
+
+			@Override
+			void setUp(int rows, int dims){
+				//Every subset of the dims dimensions is tested, for KNN-1 to KNN-I
+				model = new TunaKNNModel(synthetic(rows, dims, 1));
+				tests = ((1 << dims) - 1) * I;
+			}
+
+			@Override
+			int run(){
+				TunaKNNClassifier knn = classifier(model);
+				SubsetSearchResults results = knn.findBestAccuracy(1, I, METHOD);
+				sink += Double.doubleToLongBits(results.getBest(METHOD).getAccuracy());
+				return tests;
+			}
+		});
+
+		benchmarks.add(new Benchmark("approx", "samples"){
+			TunaKNNModel model;
+			boolean[] dimensions;
+			int rows;
+			ApproximateSearchResult result;
+
+			@Override
+			String skip(int rows, int dims){
+				if(metric != DistanceKernel.SQUARED_EUCLIDEAN)
+					return "only Squared Euclidean";
+				return rows <= MAX_LOO_ROWS ? null : "more than " + MAX_LOO_ROWS + " rows";
+			}
+
+			@Override
+			void setUp(int rows, int dims){
+				model = new TunaKNNModel(synthetic(rows, features(dims), 1));
+				dimensions = firstDimensions(dims, features(dims));
+				this.rows = rows;
+			}
+
+			@Override
+			int run(){
+				//Each sample is classified both ways, and the index is built each time
+				result = classifier(model).evaluateApproximateSearch(dimensions, I, METHOD);
+				sink += Double.doubleToLongBits(result.getAgreement());
+				return rows;
+			}
+
+			@Override
+			void tearDown(){
+				System.out.println("          " + result);
+			}
+		});
+
+		benchmarks.add(new DistanceBenchmark("powloop"){
+			double[] scale;
+
+			@Override
+			void setUp(int rows, int dims){
+				super.setUp(rows, dims);
+				scale = new double[dimensions.length];
+				Arrays.fill(scale, 1);
+			}
+
+			@Override
+			void distances(double[] sample, int from, int to){
+				//As the classifier scanned the test set before the distance kernels
+				for(int y = from; y < to; y++){
+					double distance = 0;
+					for(int n = 0; n < dimensions.length; n++)
+						if(dimensions[n])
+							distance += Math.pow(Math.abs((sample[n] - testSet[n][y]) * scale[n]), 2);
+					distances[y - from] = distance;
+				}
+			}
+		});
+
+		benchmarks.add(kernelBenchmark("euclidean", DistanceKernel.SQUARED_EUCLIDEAN));
+		benchmarks.add(kernelBenchmark("manhattan", DistanceKernel.MANHATTAN));
+		benchmarks.add(kernelBenchmark("chebyshev", DistanceKernel.CHEBYSHEV));
+		benchmarks.add(kernelBenchmark("weighted", DistanceKernel.WEIGHTED_EUCLIDEAN));
+		benchmarks.add(kernelBenchmark("cosine", DistanceKernel.COSINE));
+
+		return benchmarks;
+	}
+
+	/**
+	 * Warm up then time a benchmark, and print a line of the results table
+	 */
+	private void measure(Benchmark benchmark, int rows, int dims) throws IOException {
+		String skip = benchmark.skip(rows, dims);
+		if(skip != null){
+			System.out.printf("%-9s %9d %4d %14s %s\n", benchmark.name, rows, dims, "-", "(skipped, " + skip + ")");
+			return;
+		}
+
+		benchmark.setUp(rows, dims);
+		try {
+			double[] nsPerUnit = new double[MEASURED_ITERATIONS];
+
+			for(int iteration = -WARMUP_ITERATIONS; iteration < MEASURED_ITERATIONS; iteration++){
+				long units = 0;
+				long start = System.nanoTime();
+				long elapsed;
+
+				//Run until the iteration has lasted long enough to time accurately
+				do {
+					units += benchmark.run();
+					elapsed = System.nanoTime() - start;
+				} while(elapsed < MIN_ITERATION_TIME * 1000000);
+
+				if(iteration >= 0)
+					nsPerUnit[iteration] = (double) elapsed / units;
+			}
+
+			double mean = 0;
+			for(double ns : nsPerUnit)
+				mean += ns;
+			mean /= nsPerUnit.length;
+
+			double variance = 0;
+			for(double ns : nsPerUnit)
+				variance += (ns - mean) * (ns - mean);
+			double sd = Math.sqrt(variance / (nsPerUnit.length - 1));
+
+			System.out.printf("%-9s %9d %4d %14.1f +- %-10.1f %14.0f %s/s\n", benchmark.name, rows, dims, mean, sd, 1e9 / mean, benchmark.unit);
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Returns the comma separated list of numbers given
+	 */
+	private static int[] parseList(String list){
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for(int x = 0; x < parts.length; x++)
+			values[x] = (int) Double.parseDouble(parts[x].trim());  //Allows 1e7
+		return values;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int[] rowCounts = DEFAULT_ROWS;
+		int[] dimCounts = DEFAULT_DIMS;
+		String only = null;
+
+		TunaBenchmark harness = new TunaBenchmark();
+
+		for(String arg : args){
+			if(arg.startsWith("rows="))
+				rowCounts = parseList(arg.substring(5));
+			else if(arg.startsWith("dims="))
+				dimCounts = parseList(arg.substring(5));
+			else if(arg.startsWith("bench="))
+				only = "," + arg.substring(6) + ",";
+			else if(arg.equals("index=kd"))
+				harness.indexType = TunaKNNClassifier.KD_TREE;
+			else if(arg.equals("index=ball"))
+				harness.indexType = TunaKNNClassifier.BALL_TREE;
+			else if(arg.equals("index=linear"))
+				harness.indexType = TunaKNNClassifier.LINEAR_SCAN;
+			else if(arg.equals("index=lsh"))
+				harness.indexType = TunaKNNClassifier.LSH;
+			else if(arg.matches("lsh=\\d+,\\d+,[0-9.]+,\\d+")){
+				String[] settings = arg.substring(4).split(",");
+				harness.lshTables = Integer.parseInt(settings[0]);
+				harness.lshProjections = Integer.parseInt(settings[1]);
+				harness.lshWidth = Double.parseDouble(settings[2]);
+				harness.lshProbes = Integer.parseInt(settings[3]);
+			}
+			else if(arg.matches("metric=[0-4]"))
+				harness.metric = Integer.parseInt(arg.substring(7));
+			else if(arg.equals("abandon=on") || arg.equals("abandon=off"))
+				harness.earlyAbandon = arg.equals("abandon=on");
+			else {
+				System.err.println("Usage: TunaBenchmark [rows=100,1000,...] [dims=1,2,...] [bench=load,stats,classify,batch,loo,sweep,approx,powloop,euclidean,...] [index=linear|kd|ball|lsh] [metric=0-4] [abandon=on|off] [lsh=tables,projections,width,probes]");
+				return;
+			}
+		}
+
+		for(int dims : dimCounts)
+			if(dims < 1 || dims > 62){
+				System.err.println("dims must be between 1 and 62");
+				return;
+			}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		harness.executor = Executors.newFixedThreadPool(threads);
+
+		System.out.printf("%d threads, KNN-%d method %d, %s distance%s, %d warmup and %d timed iterations of at least %d ms\n",
+				threads, I, METHOD, DistanceKernel.METRIC_NAMES[harness.metric], harness.earlyAbandon ? " (early abandon)" : "", WARMUP_ITERATIONS, MEASURED_ITERATIONS, MIN_ITERATION_TIME);
+		System.out.printf("%-9s %9s %4s %14s   %-10s %14s\n", "benchmark", "rows", "dims", "ns/unit", "sd", "throughput");
+
+		try {
+			for(Benchmark benchmark : harness.benchmarks()){
+				if(only != null && !only.contains("," + benchmark.name + ","))
+					continue;
+
+				for(int rows : rowCounts)
+					for(int dims : dimCounts)
+						harness.measure(benchmark, rows, dims);
+			}
+		} finally {
+			harness.executor.shutdown();
+		}
+
+		//Printed so the results cannot be optimised away
+		System.out.println("(checksum " + sink + ")");
+	}
+}
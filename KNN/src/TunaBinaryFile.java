@@ -0,0 +1,236 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Ben
+ * Reads and writes the test set in a compact binary format, so a classifier can start without parsing
+ * text or recalculating the mean/SD of each dimension. All values are big-endian:
+ *
+ * Header: magic number, version, length of the header in bytes (Including the padding, so the data
+ * starts there), number of dimensions, each dimension name, number of rows, number of classifications,
+ * each classification, then the mean, SD and M2 of each dimension. Names are stored as in
+ * DataOutputStream.writeUTF. The header is padded to a multiple of 8 bytes.
+ * Data: each dimension's values as doubles (column-major), then one class id byte per row.
+ */
+public class TunaBinaryFile {
+
+	//"TUNA" in ASCII
+	private static final int MAGIC = 0x54554E41;
+	private static final int VERSION = 2;
+
+	//Bytes before the rest of the header: magic number, version and header length
+	private static final int PREAMBLE = 12;
+
+	//Class id byte stored for rows without a classification (So up to 255 classifications can be stored)
+	private static final int UNKNOWN_CLASS = 0xFF;
+
+	/**
+	 * Converts a text data file (As read by TunaDataFileRead) into the binary format
+	 * @param textFile The text file to read
+	 * @param binaryFile The binary file to write
+	 * @throws IOException If the binary file cannot be written
+	 */
+	public static void convert(String textFile, String binaryFile) throws IOException {
+		write(new TunaKNNModel(textFile), binaryFile);
+	}
+
+	/**
+	 * Writes the test set and statistics of a model to a binary file
+	 * @param model The model to write
+	 * @param filename The binary file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(TunaKNNModel model, String filename) throws IOException {
+		FeatureMatrix testSet = model.getTestSet();
+		ColumnStats stats = model.getStats();
+		int noDimensions = model.getNoDimensions();
+		int size = testSet.size();
+		String[] labels = model.getClassDictionary().getLabels();
+
+		if(labels.length > UNKNOWN_CLASS)
+			throw new IOException("Only " + UNKNOWN_CLASS + " classifications can be stored, the model has " + labels.length);
+
+		//The rest of the header is written out first, so its length is known
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+
+		header.writeInt(noDimensions);
+		for(int x = 0; x < noDimensions; x++)
+			header.writeUTF(FeatureMatrix.dimensionName(x));
+
+		header.writeInt(size);
+
+		header.writeInt(labels.length);
+		for(int x = 0; x < labels.length; x++)
+			header.writeUTF(labels[x]);
+
+		for(int x = 0; x < noDimensions; x++){
+			header.writeDouble(stats.getMean(x));
+			header.writeDouble(stats.getSD(x));
+			header.writeDouble(stats.getM2(x));
+		}
+
+		//Padded so the columns start on an 8 byte boundary
+		int headerLength = (PREAMBLE + header.size() + 7) / 8 * 8;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(headerLength);
+			headerBytes.writeTo(out);
+
+			while(out.size() < headerLength)
+				out.writeByte(0);
+
+			for(int x = 0; x < noDimensions; x++){
+				DoubleBuffer column = testSet.getColumnBuffer(x);
+				for(int y = 0; y < size; y++)
+					out.writeDouble(column.get(y));
+			}
+
+			for(int y = 0; y < size; y++){
+				int classId = testSet.getClassId(y);
+				out.writeByte(classId < 0 ? UNKNOWN_CLASS : classId);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads a model from a binary file. The file is memory-mapped and the model's columns are the mapped
+	 * buffers, so the values are read from the file as they are used rather than copied when it is loaded.
+	 * The stored mean/SD are used rather than recalculated.
+	 * @param filename The binary file to read
+	 * @return The model held in the file
+	 * @throws IOException If the file cannot be read or is not in the binary format
+	 */
+	public static TunaKNNModel readModel(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+
+			if(channel.size() < PREAMBLE)
+				throw new IOException(filename + " is not a binary tuna data file");
+
+			MappedByteBuffer preamble = channel.map(FileChannel.MapMode.READ_ONLY, 0, PREAMBLE);
+			if(preamble.getInt() != MAGIC)
+				throw new IOException(filename + " is not a binary tuna data file");
+			if(preamble.getInt() != VERSION)
+				throw new IOException(filename + " is an unsupported version");
+
+			long headerLength = preamble.getInt();
+			if(headerLength < PREAMBLE || headerLength > channel.size())
+				throw new IOException(filename + " has an invalid header length: " + headerLength);
+
+			//Only the header is mapped to read it, however long it says it is
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerLength);
+			header.position(PREAMBLE);
+
+			int noDimensions;
+			int size;
+			ClassDictionary classes = new ClassDictionary();
+			double[] mean;
+			double[] m2;
+			try {
+				noDimensions = header.getInt();
+				if(noDimensions < 0)
+					throw new IOException(filename + " has an invalid number of dimensions: " + noDimensions);
+				for(int x = 0; x < noDimensions; x++)
+					readUTF(header);  //Dimension names are not needed to classify
+
+				size = header.getInt();
+				if(size < 0)
+					throw new IOException(filename + " has an invalid number of rows: " + size);
+
+				//The class ids in the file are the class ids of the model
+				int noClasses = header.getInt();
+				if(noClasses < 0 || noClasses > UNKNOWN_CLASS)
+					throw new IOException(filename + " has an invalid number of classifications: " + noClasses);
+				for(int x = 0; x < noClasses; x++)
+					classes.add(readUTF(header));
+
+				mean = new double[noDimensions];
+				m2 = new double[noDimensions];
+				for(int x = 0; x < noDimensions; x++){
+					mean[x] = header.getDouble();
+					header.getDouble();  //SD is worked out from M2, so it matches exactly
+					m2[x] = header.getDouble();
+				}
+			} catch (BufferUnderflowException e) {
+				throw new IOException(filename + " has a header longer than its header length says", e);
+			}
+
+			long position = headerLength;
+
+			if(channel.size() < position + (long) size * (noDimensions * 8L + 1))
+				throw new IOException(filename + " is shorter than its header says");
+
+			//A single mapping is limited to 2GB
+			if((long) size * 8 > Integer.MAX_VALUE)
+				throw new IOException(filename + " has too many rows to map a column");
+
+			//Map one column at a time. The buffers stay valid once the file is closed
+			DoubleBuffer[] columns = new DoubleBuffer[noDimensions];
+			for(int x = 0; x < noDimensions; x++){
+				columns[x] = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) size * 8).asDoubleBuffer();
+				position += (long) size * 8;
+			}
+
+			ByteBuffer classBytes = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+			int[] classIds = new int[size];
+			for(int y = 0; y < size; y++){
+				int classId = classBytes.get(y) & 0xFF;
+				if(classId != UNKNOWN_CLASS && classId >= classes.size())
+					throw new IOException(filename + " has an unknown class id on row " + y + ": " + classId);
+				classIds[y] = classId == UNKNOWN_CLASS ? -1 : classId;
+			}
+
+			FeatureMatrix testSet = new FeatureMatrix(columns, classIds, size, classes);
+			return new TunaKNNModel(testSet, new ColumnStats(size, mean, m2));
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Read a String written by DataOutputStream.writeUTF
+	 */
+	private static String readUTF(ByteBuffer buffer) throws UnsupportedEncodingException {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Converts a text data file to the binary format, then times loading both
+	 * @param args The text file and the binary file to write (data.txt and data.bin if none given)
+	 */
+	public static void main(String[] args) throws IOException {
+		String textFile = args.length > 0 ? args[0] : "data.txt";
+		String binaryFile = args.length > 1 ? args[1] : "data.bin";
+
+		long start = System.nanoTime();
+		TunaKNNModel model = new TunaKNNModel(textFile);
+		long textTime = System.nanoTime() - start;
+
+		write(model, binaryFile);
+
+		start = System.nanoTime();
+		model = readModel(binaryFile);
+		long binaryTime = System.nanoTime() - start;
+
+		System.out.printf("%d rows. Text load: %.1f ms, binary load: %.1f ms\n", model.getTestSetSize(), textTime / 1e6, binaryTime / 1e6);
+	}
+}
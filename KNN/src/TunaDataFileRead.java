@@ -1,49 +1,350 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TunaDataFileRead {
 
 	//Mean Depth ..... IQR Temp
 	private static int noOfDimensions = 8;
 	
-	/**Returns an ArrayList<ArrayList<Double>> where each ArrayList<Double> stores data
-	 * from one dimension from the specified file. It reads the file from line 1 assuming
-	 * line 0 is column headers.
+	//Throughput of the last file read in (MB/s)
+	private static volatile double lastThroughput = 0;
+	
+	//Smallest part of a file given to one thread by readModelParallel
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+	
+	//Number of parts each thread is given by readModelParallel (Evens out uneven parts)
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	/**Returns a FeatureMatrix holding the values and classifications from the specified 
+	 * file, read in a single pass. It reads the file from line 1 assuming line 0 is column headers.
 	 * @param filename The file holding the raw data.
-	 * @return ArrayList<ArrayList<Double>> of the raw data
+	 * @return FeatureMatrix of the raw data
 	 */
-	public static ArrayList<ArrayList<Double>> readValues(String filename){
+	public static FeatureMatrix readMatrix(String filename){
+		
+		FeatureMatrix matrix = new FeatureMatrix(noOfDimensions);
 		
-		//An array list for each of the measurements
-		ArrayList<ArrayList<Double>> values = new ArrayList<ArrayList<Double>>();
+		//Values of the row currently being read
+		double[] row = new double[noOfDimensions];
 		
-		//Create the array lists
-		for(int x = 0; x < noOfDimensions; x++)
-			values.add(new ArrayList<Double>());
+		long start = System.nanoTime();
+		
+		InputStream in = null;
+		try {
+			in = new FileInputStream(filename);
+			TunaDataParser parser = new TunaDataParser(in, noOfDimensions, matrix.getClassDictionary());
+			
+			parser.skipLine();  //Skips column titles
+			
+			//Read in each row with its classification
+			while (parser.readRow(row))
+				matrix.addRow(row, parser.getClassId());
+			
+			double seconds = (System.nanoTime() - start) / 1e9;
+			lastThroughput = parser.getBytesRead() / (1024.0 * 1024.0) / Math.max(seconds, 1e-9);
+		} catch (IOException e1) {
+			// TODO Auto-generated catch block
+			e1.printStackTrace();
+		} finally {
+			if(in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+		}
 				
-		Scanner s;
+		return matrix;
+	}
+	
+	/**Returns a model of the data in the specified file, reading parts of the file on several threads
+	 * at once. The file is split into byte ranges that start and end on line boundaries. The rows in each
+	 * range are counted first, so the columns can be allocated at their final size and each range parsed
+	 * straight into its own rows of them, while the mean/SD of its rows are worked out. The test set is the
+	 * same as readMatrix gives. It reads the file from line 1 assuming line 0 is column headers.
+	 * @param filename The file holding the raw data.
+	 * @param threads The number of threads to read with
+	 * @return TunaKNNModel of the raw data
+	 * @throws IOException If the file cannot be read
+	 */
+	public static TunaKNNModel readModelParallel(String filename, int threads) throws IOException {
+		long start = System.nanoTime();
+		
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
 		try {
-			s = new Scanner(new BufferedReader(new FileReader(filename)));
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
 			
-			s.nextLine();  //Skips column titles
+			//Skip column titles
+			long dataStart = nextLineStart(channel, 0);
 			
-			while (s.hasNext()) {
-				//Read in each value to the relevant array list
-				for(ArrayList<Double> list : values)
-					list.add(s.nextDouble());
+			//Split the rest into ranges, each moved on to the start of a line
+			long chunkSize = Math.max(MIN_CHUNK_SIZE, (size - dataStart) / (Math.max(1, threads) * CHUNKS_PER_THREAD) + 1);
+			ArrayList<RowCount> counts = new ArrayList<RowCount>();
+			for(long from = dataStart; from < size; ){
+				long to = from + chunkSize >= size ? size : nextLineStart(channel, from + chunkSize);
+				counts.add(new RowCount(channel, from, to));
+				from = to;
+			}
+			
+			//Count the rows in each range, so each knows which rows of the columns it fills
+			List<Future<Integer>> counted = executor.invokeAll(counts);
+			int[] chunkRows = new int[counts.size()];
+			long rowCount = 0;
+			for(int c = 0; c < chunkRows.length; c++){
+				chunkRows[c] = counted.get(c).get();
+				rowCount += chunkRows[c];
+			}
+			if(rowCount > Integer.MAX_VALUE - 8)
+				throw new IOException(filename + " has too many rows to hold: " + rowCount);
+			
+			int rows = (int) rowCount;
+			double[][] columns = new double[noOfDimensions][rows];
+			int[] classIds = new int[rows];
+			
+			ArrayList<ChunkRead> chunks = new ArrayList<ChunkRead>();
+			int firstRow = 0;
+			for(int c = 0; c < chunkRows.length; c++){
+				RowCount count = counts.get(c);
+				chunks.add(new ChunkRead(channel, count.from, count.to, columns, classIds, firstRow, chunkRows[c]));
+				firstRow += chunkRows[c];
+			}
+			
+			for(Future<ClassDictionary> result : executor.invokeAll(chunks))
+				result.get();
+			
+			ColumnStats stats = new ColumnStats(0, new double[noOfDimensions], new double[noOfDimensions]);
+			for(ChunkRead chunk : chunks)
+				stats = stats.combine(chunk.stats);
+			
+			/*Each range has its own class ids, so they are mapped to ids given in file order (The same ids
+			 * readMatrix gives), in place*/
+			ClassDictionary classes = new ClassDictionary();
+			for(ChunkRead chunk : chunks){
+				ClassDictionary chunkClasses = chunk.classes;
+				int[] idMap = new int[chunkClasses.size()];
+				for(int c = 0; c < idMap.length; c++)
+					idMap[c] = -1;
 				
-				//Skip the classification 
-				s.next();
+				for(int y = chunk.firstRow; y < chunk.firstRow + chunk.rows; y++){
+					int classId = classIds[y];
+					if(classId >= 0 && idMap[classId] < 0)
+						idMap[classId] = classes.add(chunkClasses.label(classId));
+					classIds[y] = classId < 0 ? -1 : idMap[classId];
+				}
 			}
-		} catch (FileNotFoundException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		}	
+			
+			double seconds = (System.nanoTime() - start) / 1e9;
+			lastThroughput = size / (1024.0 * 1024.0) / Math.max(seconds, 1e-9);
+			
+			return new TunaKNNModel(new FeatureMatrix(columns, classIds, rows, classes), stats);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Reading " + filename + " interrupted", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException("Reading " + filename + " failed", e.getCause());
+		} finally {
+			executor.shutdown();
+			file.close();
+		}
+	}
+	
+	/**
+	 * Returns the position just after the next newline at or after the position given (The end of the file if there is none)
+	 */
+	private static long nextLineStart(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long size = channel.size();
+		
+		while(position < size){
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			for(int x = 0; x < read; x++)
+				if(buffer.get(x) == '\n')
+					return position + x + 1;
+			position += read;
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * @author Ben
+	 * Counts the rows in a byte range of a file: the lines with anything other than whitespace on them,
+	 * as TunaDataParser skips blank lines.
+	 */
+	private static class RowCount implements Callable<Integer>{
+		private FileChannel channel;
+		private long from;
+		private long to;
+		
+		RowCount(FileChannel channel, long from, long to){
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		public Integer call() throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			int rows = 0;
+			
+			//Whether the current line has had anything other than whitespace on it
+			boolean inRow = false;
+			
+			for(long position = from; position < to; ){
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), to - position));
+				int read = channel.read(buffer, position);
+				if(read < 0)
+					break;
 				
-		return values;
+				for(int x = 0; x < read; x++){
+					byte b = buffer.get(x);
+					if(b == '\n'){
+						rows += inRow ? 1 : 0;
+						inRow = false;
+					}else if(b != ' ' && b != '\t' && b != '\r')
+						inRow = true;
+				}
+				position += read;
+			}
+			
+			//The last line may not end with a newline
+			return inRow ? rows + 1 : rows;
+		}
+	}
+	
+	/**
+	 * @author Ben
+	 * Reads the rows in a byte range of a file straight into their rows of the columns, and works out the
+	 * mean/SD of the rows as they are read (Welford's method, so the parts can be combined accurately).
+	 * Class ids are given by the range's own ClassDictionary, returned once read.
+	 */
+	private static class ChunkRead implements Callable<ClassDictionary>{
+		private FileChannel channel;
+		private long from;
+		private long to;
+		
+		//The columns and class ids of the whole file, and the rows this range fills
+		private double[][] columns;
+		private int[] classIds;
+		private int firstRow;
+		private int rows;
+		
+		//Statistics of the rows read and the classifications in the range, set once read
+		private ColumnStats stats;
+		private ClassDictionary classes;
+		
+		ChunkRead(FileChannel channel, long from, long to, double[][] columns, int[] classIds, int firstRow, int rows){
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.columns = columns;
+			this.classIds = classIds;
+			this.firstRow = firstRow;
+			this.rows = rows;
+		}
+		
+		@Override
+		public ClassDictionary call() throws IOException {
+			ClassDictionary chunkClasses = new ClassDictionary();
+			TunaDataParser parser = new TunaDataParser(new RangeInputStream(channel, from, to), noOfDimensions, chunkClasses);
+			
+			double[] row = new double[noOfDimensions];
+			double[] mean = new double[noOfDimensions];
+			double[] m2 = new double[noOfDimensions];
+			int count = 0;
+			
+			while(parser.readRow(row)){
+				//The file has changed since the rows were counted
+				if(count == rows)
+					throw new IOException("More rows read than counted between bytes " + from + " and " + to);
+				
+				for(int x = 0; x < noOfDimensions; x++)
+					columns[x][firstRow + count] = row[x];
+				classIds[firstRow + count] = parser.getClassId();
+				
+				count++;
+				for(int x = 0; x < noOfDimensions; x++){
+					double delta = row[x] - mean[x];
+					mean[x] += delta / count;
+					m2[x] += delta * (row[x] - mean[x]);
+				}
+			}
+			
+			if(count != rows)
+				throw new IOException("Fewer rows read than counted between bytes " + from + " and " + to);
+			
+			stats = new ColumnStats(count, mean, m2);
+			classes = chunkClasses;
+			return chunkClasses;
+		}
+	}
+	
+	/**
+	 * @author Ben
+	 * Reads a byte range of a file. Positional reads are used, so many can read the same channel at once.
+	 */
+	private static class RangeInputStream extends InputStream{
+		private FileChannel channel;
+		private long position;
+		private long end;
+		
+		RangeInputStream(FileChannel channel, long from, long to){
+			this.channel = channel;
+			this.position = from;
+			this.end = to;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(position >= end)
+				return -1;
+			
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if(read > 0)
+				position += read;
+			return read;
+		}
+	}
+	
+	/**
+	 * Returns how fast the last file was read in by readMatrix
+	 * @return The throughput in MB/s
+	 */
+	public static double getLastThroughput(){
+		return lastThroughput;
+	}
+	
+	/**Returns an ArrayList<ArrayList<Double>> where each ArrayList<Double> stores data
+	 * from one dimension from the specified file. It reads the file from line 1 assuming
+	 * line 0 is column headers.
+	 * @param filename The file holding the raw data.
+	 * @return ArrayList<ArrayList<Double>> of the raw data
+	 */
+	public static ArrayList<ArrayList<Double>> readValues(String filename){
+		return readMatrix(filename).toValueLists();
 	}
 	
 	/**Returns an ArrayList<String> representing the classifications given 
@@ -53,29 +354,31 @@ public class TunaDataFileRead {
 	 * @return ArrayList<String> of classifications
 	 */
 	public static ArrayList<String> readClassifications(String filename){
+		return readMatrix(filename).toClassificationList();
+	}
 	
-		//Holds all the classifications
-		ArrayList<String> classification = new ArrayList<String>();
+	/**
+	 * Reads in the file given and prints how many rows were read and how fast
+	 * @param args The file to read (data.txt if none given)
+	 */
+	public static void main(String[] args){
+		String filename = args.length > 0 ? args[0] : "data.txt";
+		
+		long start = System.nanoTime();
+		FeatureMatrix matrix = readMatrix(filename);
+		long time = System.nanoTime() - start;
 		
-		Scanner s;
+		System.out.printf("Read %d rows from %s in %.1f ms (%.1f MB/s)\n", matrix.size(), filename, time / 1e6, getLastThroughput());
+		
+		int threads = Runtime.getRuntime().availableProcessors();
 		try {
-			s = new Scanner(new BufferedReader(new FileReader(filename)));
-			
-			s.nextLine();  //Skips column titles
+			start = System.nanoTime();
+			TunaKNNModel model = readModelParallel(filename, threads);
+			time = System.nanoTime() - start;
 			
-			while (s.hasNext()) {
-				//Skip the double values
-				for(int x = 0; x < noOfDimensions; x++)
-					s.nextDouble();
-				
-				//Read in the classification
-				classification.add(s.next());
-			}
-		} catch (FileNotFoundException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		}	
-		
-		return classification;
+			System.out.printf("Read %d rows on %d threads in %.1f ms (%.1f MB/s)\n", model.getTestSetSize(), threads, time / 1e6, getLastThroughput());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 }
@@ -0,0 +1,385 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+
+/**
+ * @author Ben
+ * Reads rows of whitespace separated values (then an optional classification) from a stream, one line
+ * per row. The bytes are read through a fixed buffer and each value is parsed straight from it, so no
+ * Strings are created for the values. Classifications are looked up by their bytes, so a String is only
+ * created the first time each classification is seen.
+ */
+public class TunaDataParser {
+
+	//Size of the buffer the stream is read through
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	//Powers of ten that are exact as doubles (10^22 is the largest)
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	//Largest mantissa that is exact as a double (2^53)
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private InputStream in;
+
+	//Number of values at the start of each row
+	private int noDimensions;
+
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+
+	//The token currently being read (Copied out of the buffer, as it may be split across two reads)
+	private byte[] token = new byte[64];
+
+	//Class id of the last row read. -1 if it had no classification
+	private int classId;
+
+	//Class ids are given to classifications by this dictionary
+	private ClassDictionary classes;
+
+	//Bytes of each classification seen so far, indexed by class id
+	private byte[][] labelBytes = new byte[8][];
+
+	//Class ids of the classifications seen so far, placed by a hash of their bytes (-1 marks an empty slot)
+	private int[] labelTable = emptyTable(16);
+	private int labelsSeen = 0;
+
+	//Number of lines read so far (Used in error messages)
+	private long lineNo = 0;
+
+	//Total number of bytes read from the stream
+	private long bytesRead = 0;
+
+	/**
+	 * @param in The stream to read rows from
+	 * @param noDimensions The number of values each row starts with
+	 */
+	public TunaDataParser(InputStream in, int noDimensions){
+		this(in, noDimensions, new ClassDictionary());
+	}
+
+	/**
+	 * @param in The stream to read rows from
+	 * @param noDimensions The number of values each row starts with
+	 * @param classes The dictionary class ids are taken from. Classifications it does not hold are added to it
+	 */
+	public TunaDataParser(InputStream in, int noDimensions, ClassDictionary classes){
+		this.in = in;
+		this.noDimensions = noDimensions;
+		this.classes = classes;
+	}
+
+	/**
+	 * Skip the rest of the current line (Used to skip column titles)
+	 * @throws IOException If the stream cannot be read
+	 */
+	public void skipLine() throws IOException {
+		while(fill()){
+			if(buffer[position++] == '\n'){
+				lineNo++;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read the next row into the array passed in. Blank lines are skipped. The classification
+	 * of the row (if any) can be found with getClassId() afterwards.
+	 * @param row The array to store the values of the row in (At least noDimensions long)
+	 * @return false if the end of the stream has been reached, true otherwise
+	 * @throws IOException If the stream cannot be read
+	 * @throws InputMismatchException If the row has fewer values than there are dimensions
+	 * @throws NumberFormatException If a value is not a number
+	 */
+	public boolean readRow(double[] row) throws IOException {
+		int count = 0;
+		classId = -1;
+
+		//Line the row is on, for error messages
+		long rowLine = 0;
+
+		while(true){
+			int length = nextToken();
+
+			//End of the stream or end of the line
+			if(length <= 0){
+				if(length == 0)
+					lineNo++;
+
+				if(count > 0 || length < 0)
+					break;
+				continue;
+			}
+
+			if(count == 0)
+				rowLine = lineNo + 1;
+
+			if(count < noDimensions)
+				row[count] = parseDouble(token, 0, length);
+			else if(count == noDimensions)
+				classId = classId(token, length);
+
+			count++;
+		}
+
+		if(count == 0)
+			return false;
+
+		if(count < noDimensions)
+			throw new InputMismatchException("Line " + rowLine + " has " + count + " values, expected " + noDimensions);
+
+		return true;
+	}
+
+	/**
+	 * Returns the class id of the classification of the last row read, -1 if it had none
+	 * @return The class id, as given by the parser's ClassDictionary
+	 */
+	public int getClassId(){
+		return classId;
+	}
+
+	public long getBytesRead(){
+		return bytesRead;
+	}
+
+	/**
+	 * Returns true if there is more to read without waiting for the stream: unread bytes in the buffer, or
+	 * bytes the stream says can be read straight away. A row may still need more bytes than these.
+	 * @return false if reading may have to wait for more input
+	 * @throws IOException If the stream cannot be checked
+	 */
+	public boolean isReady() throws IOException {
+		return position < limit || in.available() > 0;
+	}
+
+	/**
+	 * Make sure there is at least one unread byte in the buffer, reading more from the stream if needed.
+	 * @return false if the end of the stream has been reached
+	 */
+	private boolean fill() throws IOException {
+		if(position < limit)
+			return true;
+
+		int read = in.read(buffer, 0, buffer.length);
+		while(read == 0)
+			read = in.read(buffer, 0, buffer.length);
+
+		if(read < 0)
+			return false;
+
+		position = 0;
+		limit = read;
+		bytesRead += read;
+		return true;
+	}
+
+	/**
+	 * Copy the next token on the current line into token.
+	 * @return The length of the token, 0 if the line ended first (The newline is consumed) or -1 at the end of the stream
+	 */
+	private int nextToken() throws IOException {
+		//Skip spaces before the token
+		while(true){
+			if(!fill())
+				return -1;
+
+			byte b = buffer[position];
+			if(b == '\n'){
+				position++;
+				return 0;
+			}
+			if(b != ' ' && b != '\t' && b != '\r')
+				break;
+			position++;
+		}
+
+		//Copy bytes until whitespace (The whitespace is left for the next call)
+		int length = 0;
+		while(fill()){
+			byte b = buffer[position];
+			if(b == ' ' || b == '\t' || b == '\r' || b == '\n')
+				break;
+
+			if(length == token.length){
+				byte[] longer = new byte[token.length * 2];
+				System.arraycopy(token, 0, longer, 0, length);
+				token = longer;
+			}
+
+			token[length++] = b;
+			position++;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Returns the class id of the classification held in the bytes given, adding it to the dictionary
+	 * the first time it is seen.
+	 */
+	private int classId(byte[] bytes, int length){
+		int mask = labelTable.length - 1;
+		int slot = hash(bytes, length) & mask;
+
+		while(labelTable[slot] >= 0){
+			int id = labelTable[slot];
+			if(sameBytes(labelBytes[id], bytes, length))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+
+		//First time this parser has seen the classification
+		char[] chars = new char[length];
+		for(int x = 0; x < length; x++)
+			chars[x] = (char) (bytes[x] & 0xff);
+		int id = classes.add(new String(chars));
+
+		if(id >= labelBytes.length)
+			labelBytes = Arrays.copyOf(labelBytes, Math.max(id + 1, labelBytes.length * 2));
+		labelBytes[id] = Arrays.copyOf(bytes, length);
+		labelTable[slot] = id;
+
+		//Keep the table at most half full
+		if(++labelsSeen * 2 > labelTable.length){
+			int[] table = emptyTable(labelTable.length * 2);
+			for(int old : labelTable)
+				if(old >= 0){
+					int s = hash(labelBytes[old], labelBytes[old].length) & (table.length - 1);
+					while(table[s] >= 0)
+						s = (s + 1) & (table.length - 1);
+					table[s] = old;
+				}
+			labelTable = table;
+		}
+
+		return id;
+	}
+
+	private static int[] emptyTable(int size){
+		int[] table = new int[size];
+		Arrays.fill(table, -1);
+		return table;
+	}
+
+	private static int hash(byte[] bytes, int length){
+		int hash = 0;
+		for(int x = 0; x < length; x++)
+			hash = hash * 31 + bytes[x];
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean sameBytes(byte[] label, byte[] bytes, int length){
+		if(label.length != length)
+			return false;
+
+		for(int x = 0; x < length; x++)
+			if(label[x] != bytes[x])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the double held in the bytes given as decimal text, exactly as Double.parseDouble would.
+	 * Numbers of up to 15 significant digits with a small exponent are worked out directly: the digits and
+	 * the power of ten are both exact doubles, so one multiply or divide gives the correctly rounded value.
+	 * Anything else is passed to Double.parseDouble.
+	 * @param bytes The bytes holding the number
+	 * @param offset Index of the first byte
+	 * @param length Number of bytes
+	 * @return The value
+	 * @throws NumberFormatException If the bytes are not a number
+	 */
+	public static double parseDouble(byte[] bytes, int offset, int length){
+		int end = offset + length;
+		int p = offset;
+
+		boolean negative = false;
+		if(p < end && (bytes[p] == '-' || bytes[p] == '+')){
+			negative = bytes[p] == '-';
+			p++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+
+		//Digits before the decimal point (Leading zeros are not significant)
+		while(p < end && bytes[p] >= '0' && bytes[p] <= '9'){
+			anyDigits = true;
+			if(mantissa != 0 || bytes[p] != '0'){
+				if(++digits > 15)
+					return slowParse(bytes, offset, length);
+				mantissa = mantissa * 10 + (bytes[p] - '0');
+			}
+			p++;
+		}
+
+		//Digits after the decimal point
+		if(p < end && bytes[p] == '.'){
+			p++;
+			while(p < end && bytes[p] >= '0' && bytes[p] <= '9'){
+				anyDigits = true;
+				if(mantissa != 0 || bytes[p] != '0'){
+					if(++digits > 15)
+						return slowParse(bytes, offset, length);
+					mantissa = mantissa * 10 + (bytes[p] - '0');
+				}
+				exponent--;
+				p++;
+			}
+		}
+
+		if(!anyDigits)
+			return slowParse(bytes, offset, length);
+
+		//Exponent
+		if(p < end && (bytes[p] == 'e' || bytes[p] == 'E')){
+			p++;
+			boolean negativeExponent = false;
+			if(p < end && (bytes[p] == '-' || bytes[p] == '+')){
+				negativeExponent = bytes[p] == '-';
+				p++;
+			}
+
+			if(p == end)
+				return slowParse(bytes, offset, length);
+
+			int value = 0;
+			while(p < end && bytes[p] >= '0' && bytes[p] <= '9'){
+				if(value > 1000)
+					return slowParse(bytes, offset, length);
+				value = value * 10 + (bytes[p] - '0');
+				p++;
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+
+		//Anything left over (e.g. a 'd' suffix) is left to Double.parseDouble
+		if(p != end || mantissa >= MAX_EXACT_MANTISSA)
+			return slowParse(bytes, offset, length);
+
+		double result;
+		if(mantissa == 0)
+			result = 0;
+		else if(exponent >= 0 && exponent < POWERS_OF_TEN.length)
+			result = mantissa * POWERS_OF_TEN[exponent];
+		else if(exponent < 0 && -exponent < POWERS_OF_TEN.length)
+			result = mantissa / POWERS_OF_TEN[-exponent];
+		else
+			return slowParse(bytes, offset, length);
+
+		return negative ? -result : result;
+	}
+
+	private static double slowParse(byte[] bytes, int offset, int length){
+		char[] chars = new char[length];
+		for(int x = 0; x < length; x++)
+			chars[x] = (char) (bytes[offset + x] & 0xff);
+		return Double.parseDouble(new String(chars));
+	}
+}
@@ -1,128 +1,256 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class TunaKNNClassifier {
 
+	//Ways of finding the nearest neighbours of a sample for classify(boolean[], double[], int, int)
+	public static final int LINEAR_SCAN = 0;
+	public static final int KD_TREE = 1;
+	public static final int BALL_TREE = 2;
+	public static final int LSH = 3;
+
 	//Number of dimensions in the test set
-	private int noDimensions = 8;
+	private final int noDimensions;
 	
 	//Number of expert-classified points of data we have in the test set(Classified point = 12 hour period)
 	private int testSetSize;
 	
-	//Number of points for each classification (S,T,U,V,TX) (Stored for Bayes Naive classifier)
-	private int[] noOfEachClass = new int[5];
+	//Number of points for each classification, indexed by class id (Stored for Bayes Naive classifier)
+	private int[] noOfEachClass;
+	
+	//Label of each class id. Strings are only used to take classifications in and give them out
+	private ClassDictionary classes;
+	
+	//Test sets at least this size are split over the shared worker pool for one left out tests
+	private static final int PARALLEL_THRESHOLD = 2000;
+	
+	//Number of chunks each worker thread is given for a parallel one left out test (Evens out uneven chunks)
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	/*Batch classification works through blocks of this many samples and test set rows at a time, so the 
+	 * block of samples and the block of rows being compared stay in cache together*/
+	private static final int QUERY_BLOCK = 64;
+	private static final int ROW_BLOCK = 2048;
+	private static final int ABANDON_BLOCK = 256;
+	
+	//Fewest dimensions included for rows to be abandoned early (If turned on)
+	private static final int EARLY_ABANDON_DIMENSIONS = 16;
+	
+	//Most one left out test results kept, least recently used dropped first
+	private static final int MAX_CACHED_RESULTS = 1 << 16;
+	
+	//Worker pool shared by all classifiers, created when first needed
+	private static ExecutorService sharedPool;
 	
-	//Stores the bayes naive value necessary (e.g tally of U * (1/Total number of U))
-	private double[] tallyOverTotal;
+	//The trained data classified against. Never altered, replaced by a larger model when rows are added
+	private volatile TunaKNNModel model;
 	
-	//Holds the raw data read in from the file (Unstandardised test set)
-	private ArrayList<String> classification;
-	private ArrayList<ArrayList<Double>> unstandardisedTestSet;
+	//Holds the raw data read in from the file (Unstandardised test set), one column per dimension
+	private FeatureMatrix unstandardisedTestSet;
 	
-	//Information about each dimension
-	private double[] meanValues = new double[noDimensions];
-	private double[] sdValues = new double[noDimensions];
+	//Mean and sum of squares of each dimension, used to find leave-one-out mean/SD values
+	private ColumnStats testSetStats;
+	
+	/*Held for reading while classifying or testing, and for writing while rows are added. Rows are added
+	 * to a copy of the model first, so the write lock is only held to swap the model and update the indexes*/
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	//Only one set of rows is added at a time
+	private final Object addLock = new Object();
+	
+	//Accuracy found by one left out tests (Or subset searches) of the current test set, least recently used first
+	private final LinkedHashMap<ResultKey, Double> resultCache = new LinkedHashMap<ResultKey, Double>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
 		
-	//Holds all the standardised values (Standardised test set)
-	private ArrayList<ArrayList<Double>> standardisedTestSet = new ArrayList<ArrayList<Double>>();
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ResultKey, Double> eldest) {
+			return size() > MAX_CACHED_RESULTS;
+		}
+	};
 		
-	//The sample to be classified
-	private double[] unstandardisedSampleData = new double[noDimensions];
-	private double[] standardisedSampleData = new double[noDimensions];
+	//Scratch buffers used by classify(boolean[], double[], int, int), one set for each thread calling it
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>(){
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace(noDimensions);
+		}
+	};
+	
+	//How neighbours are found by classify(boolean[], double[], int, int)
+	private volatile int indexType = LINEAR_SCAN;
+	
+	//Works out the distances between samples. Squared Euclidean unless changed by setDistanceMetric
+	private volatile DistanceKernel distanceKernel = DistanceKernel.create(DistanceKernel.SQUARED_EUCLIDEAN, null);
+	
+	//Whether scans of the test set stop adding up a row's distance once it cannot be one of the nearest
+	private volatile boolean earlyAbandon = false;
 	
-	// Should the classifier be reset after a one left out test. 
-	private boolean reset = true;
+	//Whether one left out test results are kept and reused
+	private volatile boolean cachingResults = true;
+	
+	/*Number of hash tables, random directions in each (0 for one per dimension included), slab width (0 picks
+	 * from the test set) and extra buckets probed by LSH indexes*/
+	private int lshTables = 8;
+	private int lshProjections = 0;
+	private double lshWidth = 0;
+	private int lshProbes = 2;
+	
+	//Indexes built over the standardised test set so far, one for each dimension subset used
+	private HashMap<Long, NeighbourIndex> indexes = new HashMap<Long, NeighbourIndex>();
 	
 	public TunaKNNClassifier(String filename){
-		unstandardisedTestSet = TunaDataFileRead.readValues(filename);
-		classification = TunaDataFileRead.readClassifications(filename);
-		testSetSize = unstandardisedTestSet.get(0).size();
-		
-		resetClassifierAllDimensions();
-		
-		//Count frequency of each classification for Bayes Naive in the test set
-		countClassifications();
+		this(new TunaKNNModel(filename));
 	}
 	
 	/**
-	 * Recalculate the mean, S.D values and re-standardise the test set. (All dimensions)
+	 * Creates a classifier using a model that has already been trained. Any number of classifiers
+	 * can share the same model, and each classifier can be used by many threads at once.
+	 * @param model The trained data to classify against
 	 */
-	private void resetClassifierAllDimensions(){
-		calculateMeanAndSDValuesAllDimensions();
-		
-		//Calculate the standardised test set
-		standardiseTestSetAllDimensions();	
+	public TunaKNNClassifier(TunaKNNModel model){
+		noDimensions = model.getNoDimensions();
+		useModel(model);
 	}
-		
+	
 	/**
-	 * Update the arrays holding Mean and Standard Deviation for the testSet
-	 * that has been read in from file and classified by experts. 
+	 * Classify against the model given from now on
 	 */
-	private void calculateMeanAndSDValuesAllDimensions(){
-		//Calculate the mean and standard deviation for each dimension
-		for(int x = 0; x < noDimensions; x++){
-			meanValues[x] = ArrayListMath.mean(unstandardisedTestSet.get(x));
-			sdValues[x] = ArrayListMath.standardDeviation(unstandardisedTestSet.get(x), meanValues[x]);		
-		}
+	private void useModel(TunaKNNModel model){
+		this.model = model;
+		
+		testSetSize = model.getTestSetSize();
+		noOfEachClass = model.getClassCounts();
+		classes = model.getClassDictionary();
+		unstandardisedTestSet = model.getTestSet();
+		testSetStats = model.getStats();
 	}
 	
-	/**
-	 * Update the standardised values for all dimensions(Does not calculate mean/sd, uses stored values) 
-	 */
-	private void standardiseTestSetAllDimensions(){
-		//Scale the data for each dimension by the method of standard score
-		
-		//New list of arraylists created so unstandardised double objects are not affected and still accessible
-		standardisedTestSet = new ArrayList<ArrayList<Double>>();
-		
-		//Scale each list of data 
-		for(int x = 0; x < noDimensions; x++)
-				standardisedTestSet.add(ArrayListMath.scaleDataByStandardScore(unstandardisedTestSet.get(x), meanValues[x], sdValues[x]));
+	public TunaKNNModel getModel(){
+		return model;
 	}
 	
 	/**
-	 * Update the standardised values of the sample data being stored.
+	 * Adds an expert-classified 12 hour period to the test set. See addRows.
+	 * @param values The double values from the 12 hour period
+	 * @param classification The classification given by the expert (e.g. S,T,U,V,TX)
 	 */
-	private void standardiseSample(){
-		//Scale the sample
-		for(int x = 0; x < noDimensions; x++)
-			standardisedSampleData[x] = (unstandardisedSampleData[x] - meanValues[x]) / sdValues[x];
+	public void addRow(double[] values, String classification){
+		addRows(new double[][]{values}, new String[]{classification});
 	}
 	
-	/**Set the noOfEachClass array to represent the frequency with which
-	 * each classification occurs in the test set. 0-4 S,T,U,V,TX
+	/**
+	 * Adds expert-classified 12 hour periods to the test set without reading the data file again. The mean/SD
+	 * and frequency of each classification are updated from the new periods alone, and any k-d trees or ball
+	 * trees built are updated rather than rebuilt. Classification can carry on while the periods are being
+	 * added: each classification or test uses the test set from either before or after the periods are added.
+	 * @param values The double values of each 12 hour period, indexed [period][dimension]
+	 * @param classifications The classification of each period given by the expert (e.g. S,T,U,V,TX). 
+	 * Classifications not in the test set yet are added to it
 	 */
-	private void countClassifications(){
-		for(int x = 0; x < 5; x++)
-			noOfEachClass[x] = 0;
+	public void addRows(double[][] values, String[] classifications){
 		
-		for(String c: classification){
-			if(c.matches("S")){
-				noOfEachClass[0]++;
-				continue;
+		//Input sanitation
+		if(values == null || classifications == null || values.length != classifications.length){
+			System.out.println("Please give one classification for each 12 hour period");
+			return;
+		}
+		
+		for(int y = 0; y < values.length; y++)
+			if(values[y] == null || values[y].length != noDimensions){
+				System.out.println("Each 12 hour period needs " + noDimensions + " values, period " + y + " has " 
+						+ (values[y] == null ? 0 : values[y].length));
+				return;
 			}
-			
-			if(c.matches("T")){
-				noOfEachClass[1]++;
-				continue;
+		
+		for(int y = 0; y < classifications.length; y++)
+			if(classifications[y] == null || classifications[y].trim().isEmpty()){
+				System.out.println("Unrecognised classification: " + classifications[y]);
+				return;
 			}
-			
-			if(c.matches("U")){
-				noOfEachClass[2]++;
-				continue;
+		
+		synchronized(addLock){
+			//Everything expensive is done before anything waits on the write lock
+			TunaKNNModel newModel;
+			while(true){
+				/*Classifications not held yet are given the next class ids, but only added to the dictionary
+				 * once the new model has been built. Tried again if another label is added in the meantime*/
+				int firstNewId = classes.size();
+				ArrayList<String> newLabels = new ArrayList<String>();
+				int[] classIds = new int[classifications.length];
+				for(int y = 0; y < classifications.length; y++){
+					classIds[y] = classes.idOf(classifications[y]);
+					if(classIds[y] == -1){
+						int x = newLabels.indexOf(classifications[y]);
+						if(x == -1){
+							x = newLabels.size();
+							newLabels.add(classifications[y]);
+						}
+						classIds[y] = firstNewId + x;
+					}
+				}
+				
+				newModel = model.withRows(values, classIds);
+				
+				if(newLabels.isEmpty() || classes.addAll(newLabels, firstNewId))
+					break;
 			}
 			
-			if(c.matches("V")){
-				noOfEachClass[3]++;
-				continue;
+			double[] mean = new double[noDimensions];
+			double[] sd = new double[noDimensions];
+			for(int x = 0; x < noDimensions; x++){
+				mean[x] = newModel.getMean(x);
+				sd[x] = newModel.getSD(x);
 			}
 			
-			if(c.matches("TX")){
-				noOfEachClass[4]++;
-				continue;
+			lock.writeLock().lock();
+			try {
+				useModel(newModel);
+				
+				//Accuracies found are for the old test set
+				synchronized(resultCache){
+					resultCache.clear();
+				}
+				
+				synchronized(this){
+					//Update the indexes built, dropping any that have had so many rows added they should be rebuilt
+					Iterator<Map.Entry<Long, NeighbourIndex>> iterator = indexes.entrySet().iterator();
+					while(iterator.hasNext()){
+						Map.Entry<Long, NeighbourIndex> entry = iterator.next();
+						double[][] testSet = newModel.getStandardisedTestSet(toDimensions(entry.getKey()));
+						
+						if(!entry.getValue().addRows(testSet, testSetSize, mean, sd))
+							iterator.remove();
+					}
+				}
+			} finally {
+				lock.writeLock().unlock();
 			}
 		}
 	}
 	
+	/**
+	 * Set the standardised values of a sample in the workspace
+	 * @param testData The unstandardised value of each dimension
+	 * @param ws The workspace to store the standardised sample in
+	 */
+	private void standardiseSample(double[] testData, Workspace ws){
+		//Scale the sample
+		for(int x = 0; x < noDimensions; x++)
+			ws.sample[x] = model.standardise(x, testData[x]);
+	}
+	
 	/**
 	 * Returns a String representing the classification assigned to the data passed in, running
 	 * a KNN-i classification.
@@ -136,174 +264,583 @@ public class TunaKNNClassifier {
 	 * @return 		   The classification determined for the set of data
 	*/
 	public String classify(boolean[] dimensions, double[] testData, int i, int method){
+		//Hold off rows being added until finished, so the test set stays the same throughout
+		lock.readLock().lock();
+		try {
+			//Input sanitation
+			if(i > testSetSize || i <= 0){
+				System.out.println("Incorrect i -  Max: " + (testSetSize - 1) + " Min: 1");	
+				return null;
+			}
+			
+			if(method < 1 || method > 4){
+				System.out.println("Please enter a valid method 1-4");
+				return null;
+			}
+			
+			//This thread's own buffers, so other threads can classify at the same time
+			Workspace workspace = workspaces.get();
+			
+			/*All mean and standard deviation calculations and scaling should have be done 
+			 * using the full test set. 
+			 */
+			
+			//Scale the sample we are testing
+			standardiseSample(testData, workspace);
+			
+			//Test set is already standardised, and every classification is counted
+			Arrays.fill(workspace.scale, 1);
+			workspace.setClassCounts(noOfEachClass);
+			
+			//The indexes only find Squared Euclidean neighbours
+			int type = distanceKernel.isSquaredEuclidean() ? indexType : LINEAR_SCAN;
+			if(type == LINEAR_SCAN)
+				//Run the classification (KNN-i classifier) against the whole test set
+				return classes.label(classify(dimensions, model.getStandardisedTestSet(dimensions), -1, i, method, workspace));
+			
+			//Let the index for this dimension subset find the neighbours, then run the poll as normal
+			findNeighbours(getIndex(dimensions, type), i, workspace);
+			return classes.label(vote(i, method, workspace));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Set how classify(boolean[], double[], int, int) finds the nearest neighbours. The tree indexes find exactly
+	 * the same neighbours as scanning the test set, but skip most of the test set when it is large. LSH only
+	 * checks the rows hashed near the sample, so is much faster again but may miss some of the neighbours
+	 * (See setApproximateSearch and evaluateApproximateSearch).
+	 * @param indexType LINEAR_SCAN, KD_TREE, BALL_TREE or LSH
+	 */
+	public synchronized void setNeighbourIndex(int indexType){
+		if(indexType < LINEAR_SCAN || indexType > LSH){
+			System.out.println("Please enter a valid index type 0-3");
+			return;
+		}
 		
-		//Input sanitation
-		if(i > testSetSize || i <= 0){
-			System.out.println("Incorrect i -  Max: " + (testSetSize - 1) + " Min: 1");	
-			return null;
+		if(indexType != this.indexType){
+			this.indexType = indexType;
+			//Indexes of the old type are no longer needed
+			indexes.clear();
+		}
+	}
+	
+	/**
+	 * Set how the LSH index trades finding the true nearest neighbours (Recall) against speed. More tables
+	 * and probes check more rows, so find more of the neighbours. More directions or narrower slabs make each
+	 * bucket smaller, so fewer rows are checked.
+	 * @param tables Number of hash tables, at least 1 (Each holds every row, so memory grows with the number)
+	 * @param projections Random directions in each table. 0 for one per dimension included
+	 * @param width Width of the slabs each direction is cut into, in standard deviations. 0 for about 32 rows to a bucket
+	 * @param probes Extra buckets checked in each table, across the slab edges nearest the sample (Up to projections)
+	 */
+	public synchronized void setApproximateSearch(int tables, int projections, double width, int probes){
+		if(tables < 1 || projections < 0 || !(width >= 0) || probes < 0){
+			System.out.println("Please enter at least 1 table, and no negative projections, width or probes");
+			return;
 		}
 		
-		if(method < 1 || method > 4){
-			System.out.println("Please enter a valid method 1-4");
-			return null;
+		lshTables = tables;
+		lshProjections = projections;
+		lshWidth = width;
+		lshProbes = probes;
+		
+		//Indexes built with the old settings are no longer wanted
+		if(indexType == LSH)
+			indexes.clear();
+	}
+	
+	/**
+	 * Set the distance metric used to find the nearest neighbours from now on. The indexes and the distances
+	 * kept by the dimension subset search only work with Squared Euclidean distance, so the test set is 
+	 * scanned for any other metric.
+	 * @param metric 0-Squared Euclidean, 1-Manhattan, 2-Chebyshev, 4-Cosine (See DistanceKernel)
+	 */
+	public void setDistanceMetric(int metric){
+		setDistanceMetric(metric, null);
+	}
+	
+	/**
+	 * Set the distance metric used to find the nearest neighbours from now on. See setDistanceMetric(int).
+	 * @param metric 0-Squared Euclidean, 1-Manhattan, 2-Chebyshev, 3-Weighted Euclidean, 4-Cosine (See DistanceKernel)
+	 * @param weights The weight of each dimension's squared difference (Weighted Euclidean only)
+	 */
+	public void setDistanceMetric(int metric, double[] weights){
+		if(metric == DistanceKernel.WEIGHTED_EUCLIDEAN && weights != null && weights.length != noDimensions){
+			System.out.println("Please enter a weight for each of the " + noDimensions + " dimensions");
+			return;
+		}
+		
+		DistanceKernel kernel = DistanceKernel.create(metric, weights);
+		if(kernel == null)
+			return;
+		
+		//Wait for classifications and tests using the old metric to finish
+		lock.writeLock().lock();
+		try {
+			distanceKernel = kernel;
+			
+			//Accuracies found with the old metric no longer apply
+			synchronized(resultCache){
+				resultCache.clear();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the distance metric used to find the nearest neighbours (See DistanceKernel)
+	 */
+	public int getDistanceMetric(){
+		return distanceKernel.getMetric();
+	}
+	
+	/**
+	 * Set whether scans of the test set abandon each row as soon as its partial distance shows it cannot be 
+	 * one of the nearest neighbours. The dimensions expected to add the most for the sample are added first.
+	 * The neighbours found are exactly the same either way, but with many dimensions most of the arithmetic
+	 * is skipped. Only used with at least EARLY_ABANDON_DIMENSIONS dimensions included, and not for Cosine distance.
+	 * @param earlyAbandon true to abandon rows early
+	 */
+	public void setEarlyAbandon(boolean earlyAbandon){
+		this.earlyAbandon = earlyAbandon;
+	}
+	
+	public boolean isEarlyAbandon(){
+		return earlyAbandon;
+	}
+	
+	/**
+	 * Set whether the accuracy found by each one left out test (And every configuration a subset search
+	 * tests, which finds the same accuracies) is kept, so testing the same configuration of the same test
+	 * set again is answered straight away. Turning caching off empties the cache.
+	 * @param cachingResults true to keep results
+	 */
+	public void setCachingResults(boolean cachingResults){
+		this.cachingResults = cachingResults;
+		if(!cachingResults)
+			synchronized(resultCache){
+				resultCache.clear();
+			}
+	}
+	
+	public boolean isCachingResults(){
+		return cachingResults;
+	}
+	
+	/**
+	 * Returns the index over the standardised test set for the dimensions given, building it if this 
+	 * subset has not been used before.
+	 * @param dimensions A true value indicates this dimension is included
+	 * @param indexType The type of index wanted (KD_TREE, BALL_TREE or LSH)
+	 * @return The index
+	 */
+	private synchronized NeighbourIndex getIndex(boolean[] dimensions, int indexType){
+		Long mask = toMask(dimensions);
+		
+		//Only indexes of the current type are kept (The type may have changed since the caller checked it)
+		NeighbourIndex index = indexType == this.indexType ? indexes.get(mask) : null;
+		
+		if(index == null){
+			int[] included = toIncluded(dimensions);
+			double[][] testSet = model.getStandardisedTestSet(dimensions);
+			double[] mean = modelMeans();
+			double[] sd = modelSDs();
+			
+			if(indexType == KD_TREE)
+				index = new KDTree(testSet, testSetSize, included);
+			else if(indexType == BALL_TREE)
+				index = new BallTree(testSet, testSetSize, included, mean, sd);
+			else
+				index = new LSHIndex(testSet, testSetSize, included, mean, sd, lshTables, lshProjections, lshWidth, lshProbes);
+			
+			if(indexType == this.indexType)
+				indexes.put(mask, index);
 		}
 		
-		//Set the sample as the given 12 hour values
+		return index;
+	}
+	
+	/**
+	 * Returns the dimensions included as a bitmask. Bit n set means dimension n is included
+	 */
+	private static long toMask(boolean[] dimensions){
+		long mask = 0;
+		for(int x = 0; x < dimensions.length; x++)
+			if(dimensions[x])
+				mask |= 1L << x;
+		return mask;
+	}
+	
+	/**
+	 * Returns the dimensions included in a bitmask. Bit n set means dimension n is included
+	 */
+	private boolean[] toDimensions(long mask){
+		boolean[] dimensions = new boolean[noDimensions];
+		for(int x = 0; x < noDimensions; x++)
+			dimensions[x] = (mask & (1L << x)) != 0;
+		return dimensions;
+	}
+	
+	/**
+	 * Returns the dimensions included, in ascending order
+	 */
+	private static int[] toIncluded(boolean[] dimensions){
+		int noIncluded = 0;
+		for(boolean included : dimensions)
+			if(included)
+				noIncluded++;
+		
+		int[] included = new int[noIncluded];
+		for(int x = 0, n = 0; x < dimensions.length; x++)
+			if(dimensions[x])
+				included[n++] = x;
+		return included;
+	}
+	
+	/**
+	 * Returns the mean of each dimension the model's test set is standardised with
+	 */
+	private double[] modelMeans(){
+		double[] mean = new double[noDimensions];
+		for(int x = 0; x < noDimensions; x++)
+			mean[x] = model.getMean(x);
+		return mean;
+	}
+	
+	/**
+	 * Returns the standard deviation of each dimension the model's test set is standardised with
+	 */
+	private double[] modelSDs(){
+		double[] sd = new double[noDimensions];
 		for(int x = 0; x < noDimensions; x++)
-			unstandardisedSampleData[x] = testData[x];
+			sd[x] = model.getSD(x);
+		return sd;
+	}
+	
+	/**
+	 * Find the i nearest neighbours of the sample in the workspace using an index, nearest first, and store 
+	 * them in the workspace as a scan of the test set would.
+	 * @param index The index over the standardised test set for the dimensions being used
+	 * @param i Number of neighbours to find
+	 * @param ws The scratch buffers of the calling thread. The neighbours are stored here
+	 */
+	private void findNeighbours(NeighbourIndex index, int i, Workspace ws){
+		ws.candidates.reset(i);
+		index.findNeighbours(ws.sample, ws.candidates);
 		
-		/*All mean and standard deviation calculations and scaling should have be done 
-		 * using the full test set. 
-		 */
+		setNeighbours(ws.candidates, i, ws);
+	}
+	
+	/**
+	 * Store the class ids of the neighbours found in a list of candidates as the workspace's nearest neighbours. 
+	 * Any not found (Fewer than i rows in the test set) have no classification, so get no votes.
+	 * @param candidates The nearest neighbours found
+	 * @param i Number of neighbours being found
+	 * @param ws The workspace to store the neighbours in
+	 */
+	private void setNeighbours(NeighbourCandidates candidates, int i, Workspace ws){
+		int[] neighbours = ws.getNeighbours(i);
+		int found = candidates.getFound();
+		for(int x = 0; x < i; x++)
+			neighbours[x] = x < found ? unstandardisedTestSet.getClassId(candidates.getRow(x)) : -1;
+	}
+	
+	/**
+	 * Returns the classification of each of the 12 hour periods passed in, running a KNN-i classification.
+	 * Gives the same result as classifying each one with classify(boolean[], double[], int, int). Large 
+	 * batches are split over the shared worker pool.
+	 * @param dimensions A true value indicates this dimension should be included
+	 * 0-Mean Depth, 1-Median Depth, 2-SD Depth, 3-IQR Depth, 4-Mean Temp, 5-Median Temp, 6-SD Temp, 7-IQR Temp.
+	 * @param testData The double values of each 12 hour period to be classified, indexed [period][dimension]
+	 * @param i		   The i to use (KNN-i)
+	 * @param method 
+	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @return 		   The classification determined for each 12 hour period
+	 */
+	public String[] classify(boolean[] dimensions, double[][] testData, int i, int method){
+		if(testData.length <= QUERY_BLOCK)
+			return classify(dimensions, testData, i, method, null);
+		else
+			return classify(dimensions, testData, i, method, getSharedPool());
+	}
+	
+	/**
+	 * Returns the classification of each of the 12 hour periods passed in, running a KNN-i classification.
+	 * The periods are split into blocks, each classified by a task on the executor given.
+	 * @param dimensions A true value indicates this dimension should be included
+	 * 0-Mean Depth, 1-Median Depth, 2-SD Depth, 3-IQR Depth, 4-Mean Temp, 5-Median Temp, 6-SD Temp, 7-IQR Temp.
+	 * @param testData The double values of each 12 hour period to be classified, indexed [period][dimension]
+	 * @param i		   The i to use (KNN-i)
+	 * @param method 
+	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @param executor The executor to run the tasks on. null to run on the calling thread
+	 * @return 		   The classification determined for each 12 hour period
+	 */
+	public String[] classify(boolean[] dimensions, double[][] testData, int i, int method, ExecutorService executor){
+		//Hold off rows being added until finished, so the test set stays the same throughout
+		lock.readLock().lock();
+		try {
+			//Input sanitation
+			if(i > testSetSize || i <= 0){
+				System.out.println("Incorrect i -  Max: " + (testSetSize - 1) + " Min: 1");	
+				return null;
+			}
+			
+			if(method < 1 || method > 4){
+				System.out.println("Please enter a valid method 1-4");
+				return null;
+			}
+			
+			String[] results = new String[testData.length];
+			
+			//Copied so the caller changing the array does not affect tasks still running
+			boolean[] dims = dimensions.clone();
+			
+			//Built before the tasks start, so they do not wait on each other to build it
+			int type = distanceKernel.isSquaredEuclidean() ? indexType : LINEAR_SCAN;
+			NeighbourIndex index = type == LINEAR_SCAN ? null : getIndex(dims, type);
+			
+			ArrayList<BatchTask> tasks = new ArrayList<BatchTask>();
+			for(int from = 0; from < testData.length; from += QUERY_BLOCK)
+				tasks.add(new BatchTask(dims, testData, i, method, index, from, Math.min(testData.length, from + QUERY_BLOCK), results));
+			
+			try {
+				if(executor == null)
+					for(BatchTask task : tasks)
+						task.call();
+				else
+					//Each task fills in its own part of the results
+					for(Future<Void> result : executor.invokeAll(tasks))
+						result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Batch classification interrupted", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Batch classification failed", e.getCause());
+			}
+			
+			return results;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @author Ben
+	 * Classifies a block of 12 hour periods against the standardised test set. Without an index, the 
+	 * distances are worked out a block of test set rows at a time for every period in the block. 
+	 */
+	private class BatchTask implements Callable<Void>{
+		private boolean[] dimensions;
+		private double[][] testData;
+		private int i;
+		private int method;
+		private NeighbourIndex index;
+		
+		//Periods from (inclusive) to (exclusive) are classified, and their results stored in results
+		private int from;
+		private int to;
+		private String[] results;
+		
+		BatchTask(boolean[] dimensions, double[][] testData, int i, int method, NeighbourIndex index, 
+				  int from, int to, String[] results){
+			this.dimensions = dimensions;
+			this.testData = testData;
+			this.i = i;
+			this.method = method;
+			this.index = index;
+			this.from = from;
+			this.to = to;
+			this.results = results;
+		}
 		
-		//Run the classification (KNN-i classifier)
-		return classify(dimensions, i,method);
+		@Override
+		public Void call(){
+			Workspace ws = new Workspace(noDimensions);
+			ws.setClassCounts(noOfEachClass);
+			
+			//Test set is already standardised
+			Arrays.fill(ws.scale, 1);
+			
+			//Standardised values and nearest neighbours found so far of each period in the block
+			double[][] samples = new double[to - from][noDimensions];
+			NeighbourCandidates[] candidates = new NeighbourCandidates[to - from];
+			
+			for(int q = from; q < to; q++){
+				for(int x = 0; x < noDimensions; x++)
+					samples[q - from][x] = model.standardise(x, testData[q][x]);
+				
+				candidates[q - from] = new NeighbourCandidates();
+				candidates[q - from].reset(i);
+				
+				if(index != null)
+					index.findNeighbours(samples[q - from], candidates[q - from]);
+			}
+			
+			if(index == null){
+				double[][] testSet = model.getStandardisedTestSet(dimensions);
+				DistanceKernel kernel = distanceKernel;
+				double[] distances = ws.distances;
+				
+				//Every period against a block of rows, before moving to the next block of rows
+				for(int rowStart = 0; rowStart < testSetSize; rowStart += ROW_BLOCK){
+					int rowEnd = Math.min(testSetSize, rowStart + ROW_BLOCK);
+					
+					for(int q = 0; q < to - from; q++){
+						NeighbourCandidates nearest = candidates[q];
+						
+						ws.pack(dimensions, testSet, samples[q], kernel);
+						kernel.distances(ws.packedColumns, ws.packedSample, ws.packedCentre, ws.packedScale, ws.noIncluded, 
+										 rowStart, rowEnd, distances);
+						
+						for(int y = rowStart; y < rowEnd; y++)
+							if(distances[y - rowStart] <= nearest.worstDistance())
+								nearest.offer(distances[y - rowStart], y);
+					}
+				}
+			}
+			
+			//Run the poll for each period
+			for(int q = from; q < to; q++){
+				setNeighbours(candidates[q - from], i, ws);
+				results[q] = classes.label(vote(i, method, ws));
+			}
+			
+			return null;
+		}
 	}
 	
 	/**
-	 * Classify the 12 hour period currently stored by this classifier. 
+	 * Classify a 12 hour period against the given test set. The difference between the sample and
+	 * each point is multiplied by the scale of the dimension, so the test set can be standardised
+	 * in advance (scale of 1) or on the fly (scale of 1/SD) without building a new test set. 
 	 * @param dimensions A true value indiciates this dimension should be included in the classification process
 	 * 0-Mean Depth, 1-Median Depth, 2-SD Depth, 3-IQR Depth, 4-Mean Temp, 5-Median Temp, 6-SD Temp, 7-IQR Temp.
+	 * The sample, the scale of each dimension and the frequency of each classification (For Bayes Naive)
+	 * are taken from the workspace, which also holds the neighbours and tallies. The test set is only read,
+	 * so any number of threads can classify against it at once with their own workspace.
+	 * @param testSet The test set, indexed [dimension][row]
+	 * @param excludedRow A row of the test set to skip (The one left out). -1 to use every row
 	 * @param i KNN-i
 	 * @param method
 	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
-	 * @return A String representation of the classification assigned
+	 * @param ws The scratch buffers of the calling thread
+	 * @return The class id of the classification assigned
+	 */
+	private int classify(boolean[] dimensions, double[][] testSet, int excludedRow, int i, int method, Workspace ws){
+		findNeighbours(dimensions, testSet, excludedRow, i, ws);
+		
+		return vote(i, method, ws);
+	}
+	
+	/**
+	 * Find the i nearest neighbours of the sample in the workspace, nearest first. Neighbours the same 
+	 * distance away are kept in test set order, so the nearest j neighbours (for any j < i) are the
+	 * same as would be found for KNN-j.
+	 * @param dimensions A true value indiciates this dimension should be included in the classification process
+	 * @param testSet The test set, indexed [dimension][row]
+	 * @param excludedRow A row of the test set to skip (The one left out). -1 to use every row
+	 * @param i Number of neighbours to find
+	 * @param ws The scratch buffers of the calling thread. The neighbours are stored here
 	 */
-	private String classify(boolean[] dimensions, int i, int method){
-		//Scale the sample we are testing
-		standardiseSample();
+	private void findNeighbours(boolean[] dimensions, double[][] testSet, int excludedRow, int i, Workspace ws){
+		DistanceKernel kernel = distanceKernel;
+		ws.pack(dimensions, testSet, ws.sample, kernel);
 		
 		//Stores the i closest neighbours
-		DistClass[] neighbours = new DistClass[i];
-		//Initialise list of distances with value likely to never be exceeded
-		for(int x = 0; x < i; x++)
-			neighbours[x] = new DistClass(1000,"S");
+		NeighbourCandidates nearest = ws.candidates;
+		nearest.reset(i);
 		
+		//With few dimensions, working out every distance a block at a time is quicker
+		boolean abandon = earlyAbandon && kernel.canAbandon() && ws.noIncluded >= EARLY_ABANDON_DIMENSIONS;
+		if(abandon)
+			ws.orderDimensions(dimensions, kernel);
 		
-		//Stores the distance between the sample point and a classified point
-		double distance;
-		//For each of the classified points
-		for(int y = 0; y < testSetSize; y++){
-			distance = 0;
-			//For each dimension we are including
-			for(int n = 0; n < noDimensions; n++){
-				if(dimensions[n])
-				//Q = Classified point of data y. 
-				//Add the distance between the sample point and the known point (Squared) in dimension n. (e.g + (Pn - Qn) ^2) 
-				distance += Math.pow(Math.abs(standardisedSampleData[n] - standardisedTestSet.get(n).get(y)), 2);
-			}
-			
-			//If one of the i closest points
-			if(distance < neighbours[i-1].distance){
-				int x = i-1;
-				//Loop through and find which position it belongs in. 
-				while(x > 0){
-					//If the next distance is smaller, then x is the position for new distance
-					if(distance >= neighbours[x-1].distance)
-						break;
-					else
-						x--;
-				}
-				
-				//Move all neighbours further away than the one just found one place out
-				for(int j = i - 1; j > x; j--)
-					neighbours[j] = neighbours[j-1];
-				
-				//Add new neighbour in correct position
-				neighbours[x] = new DistClass(distance, classification.get(y));
+		//Stores the distance between the sample point and each classified point in the block
+		double[] distances = ws.distances;
+		
+		//Smaller blocks when abandoning rows, so the distance of the ith closest point found drops sooner
+		int block = abandon ? ABANDON_BLOCK : ROW_BLOCK;
+		
+		//For each block of the classified points
+		for(int rowStart = 0; rowStart < testSetSize; rowStart += block){
+			int rowEnd = Math.min(testSetSize, rowStart + block);
+			
+			if(abandon){
+				//Only the points that could be one of the i closest are kept, in order
+				int kept = kernel.distancesWithin(ws.packedColumns, ws.packedSample, ws.packedCentre, ws.packedScale, ws.noIncluded, 
+												  ws.order, rowStart, rowEnd, nearest.worstDistance(), distances, ws.rows);
 				
+				for(int j = 0; j < kept; j++)
+					if(ws.rows[j] != excludedRow && distances[j] <= nearest.worstDistance())
+						nearest.offer(distances[j], ws.rows[j]);
+				continue;
 			}
 			
-			/*Another method is to add all distances to an arraylist and sort 
-			 * the arraylist after calculating all the distances. This
-			 * took slightly longer than the used method when timed. 
-			 * The necessary code for this has been commented out below
-			 *
-			 *Add total difference and classification to the list of neighbours
-			 *neighbours.add(new DistClass(distance,classification.get(y)));
-			 */
-		}
+			//Distance to every point in the block, worked out a dimension at a time
+			kernel.distances(ws.packedColumns, ws.packedSample, ws.packedCentre, ws.packedScale, ws.noIncluded, 
+							 rowStart, rowEnd, distances);
+			
+			for(int y = rowStart; y < rowEnd; y++){
+				//The sample left out is masked rather than removed from the test set
+				if(y == excludedRow)
+					continue;
 				
-		/*
-		Collections.sort(neighbours, new Comparator<DistClass>() {
-			@Override
-			public int compare(DistClass o1, DistClass o2) {
-				if(o1.distance > o2.distance)
-					return 1;
-				else
-					if(o2.distance > o1.distance)
-						return -1;
-					else
-						return 0;
+				//If one of the i closest points (Points the same distance away are kept in test set order)
+				if(distances[y - rowStart] <= nearest.worstDistance())
+					nearest.offer(distances[y - rowStart], y);
 			}
-        });
-		 */
+		}
+		
+		setNeighbours(nearest, i, ws);
+	}
+	
+	/**
+	 * Run a poll of the nearest i neighbours stored in the workspace (Found by findNeighbours with at least i)
+	 * and return the winning classification. 
+	 * @param i KNN-i
+	 * @param method
+	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @param ws The scratch buffers holding the neighbours and frequency of each classification
+	 * @return The class id of the classification assigned
+	 */
+	private int vote(int i, int method, Workspace ws){
+		int[] neighbours = ws.getNeighbours(i);
+		int[] classCounts = ws.classCounts;
+		int noClasses = ws.noClasses;
 		
 		int maxScore = i;
 		
 		if(i == 1)	
 			//If we are just finding the nearest value, return the nearest value
-			return neighbours[0].classification;
+			return neighbours[0];
 		else{
 			//Need to run a poll of the nearest i classified points
 		
-			int[] tally = new int[5]; //Array S, T, U, V, TX
+			int[] tally = ws.tally; //Indexed by class id
+			for(int x = 0; x < noClasses; x++)
+				tally[x] = 0;
+			
+			double[] tallyOverTotal = ws.tallyOverTotal;
 			
 			for(int x = 0; x < i; x++){
 				//Get the xth nearest classified set's classification
-				String result = neighbours[x].classification;
+				int result = neighbours[x];
+				
+				//Rows without a classification get no votes
+				if(result < 0)
+					continue;
 				
 				/*Add to the tally for the classification of the xth nearest set's classification
 				 * Bayes Naive also needs frequency of occurence so adds 1 to the relevant count*/
-				 
-				if(result.matches("S")){
-					switch(method){
-					case 4:
-					case 1: tally[0]++; break;
-					case 2: tally[0] += (maxScore - x); break;
-					case 3: tally[0] += Math.pow(maxScore - x, 2); break;
-					}
-					continue;
-				}
-				
-				if(result.matches("T")){
-					switch(method){
-					case 4:
-					case 1: tally[1]++; break;
-					case 2: tally[1] += (maxScore - x); break;
-					case 3: tally[1] += Math.pow(maxScore - x, 2); break;
-					}
-					continue;
-				}
-				
-				if(result.matches("U")){
-					switch(method){
-					case 4:
-					case 1: tally[2]++; break;
-					case 2: tally[2] += (maxScore - x); break;
-					case 3: tally[2] += Math.pow(maxScore - x, 2); break;
-					}
-					continue;
-				}
-				
-				if(result.matches("V")){
-					switch(method){
-					case 4:
-					case 1: tally[3]++; break;
-					case 2: tally[3] += (maxScore - x); break;
-					case 3: tally[3] += Math.pow(maxScore - x, 2); break;
-					}
-					continue;
-				}
-				
-				if(result.matches("TX")){
-					switch(method){
-					case 4:
-					case 1: tally[4]++; break;
-					case 2: tally[4] += (maxScore - x); break;
-					case 3: tally[4] += Math.pow(maxScore - x, 2); break;
-					}
-					continue;
+				switch(method){
+				case 4:
+				case 1: tally[result]++; break;
+				case 2: tally[result] += (maxScore - x); break;
+				case 3: tally[result] += Math.pow(maxScore - x, 2); break;
 				}
 			}
 
@@ -311,16 +848,15 @@ public class TunaKNNClassifier {
 	
 			if(method == 4){
 					
-				tallyOverTotal = new double[5];
 				//Frequency of classification * (1/Frequency of classification in dataset)
-				for(int x = 0; x < 5; x++)
-					tallyOverTotal[x] = (double) tally[x] / noOfEachClass[x];
+				for(int x = 0; x < noClasses; x++)
+					tallyOverTotal[x] = (double) tally[x] / classCounts[x];
 
-				winner = arrayWinner(tallyOverTotal);
+				winner = arrayWinner(tallyOverTotal, noClasses);
 				
 			}else{
 				//Check if there is an outright winner in the tally
-				winner = arrayWinner(tally);
+				winner = arrayWinner(tally, noClasses);
 			}
 			
 			//i-1 is the index of the last neighbour we checked
@@ -336,83 +872,155 @@ public class TunaKNNClassifier {
 				 * even when all testset points have been included */
 				
 				//Get the next classification to be 'un-counted'
-				String result = neighbours[x].classification;
-								
-				if(result.matches("S"))
-					switch(method){
-					case 4: tallyOverTotal[0] = (double) (--tally[0] / noOfEachClass[0]); break;
-					case 1: tally[0]--; break;
-					case 2: tally[0] -= (maxScore - x); break;
-					case 3: tally[0] -= Math.pow(maxScore - x, 2); break;
-					}
-				
-				if(result.matches("T"))
-					switch(method){
-					case 4: tallyOverTotal[1] = (double) (--tally[1] / noOfEachClass[1]); break;
-					case 1: tally[1]--; break;
-					case 2: tally[1] -= (maxScore - x); break;
-					case 3: tally[1] -= Math.pow(maxScore - x, 2); break;
-					}
+				int result = neighbours[x];
 				
-				if(result.matches("U"))
+				if(result >= 0)
 					switch(method){
-					case 4: tallyOverTotal[2] = (double) (--tally[2] / noOfEachClass[2]); break;
-					case 1: tally[2]--; break;
-					case 2: tally[2] -= (maxScore - x); break;
-					case 3: tally[2] -= Math.pow(maxScore - x, 2); break;
+					case 4: tallyOverTotal[result] = (double) (--tally[result] / classCounts[result]); break;
+					case 1: tally[result]--; break;
+					case 2: tally[result] -= (maxScore - x); break;
+					case 3: tally[result] -= Math.pow(maxScore - x, 2); break;
 					}
 				
-				
-				if(result.matches("V"))
-					switch(method){
-					case 4: tallyOverTotal[3] = (double) (--tally[3] / noOfEachClass[3]); break;
-					case 1: tally[3]--; break;
-					case 2: tally[3] -= (maxScore - x); break;
-					case 3: tally[3] -= Math.pow(maxScore - x, 2); break;
-					}
-				
-				if(result.matches("TX"))
-					switch(method){
-					case 4: tallyOverTotal[4] = (double) (--tally[4] / noOfEachClass[4]); break;
-					case 1: tally[4]--; break;
-					case 2: tally[4] -= (maxScore - x); break;
-					case 3: tally[4] -= Math.pow(maxScore - x, 2); break;
-					}	
-				
 				//See if we now have an outright winner
 				if(method == 4)
-					winner = arrayWinner(tallyOverTotal);
+					winner = arrayWinner(tallyOverTotal, noClasses);
 				else
-					winner = arrayWinner(tally);
+					winner = arrayWinner(tally, noClasses);
 						
 				x--;
 			}
 			
 			//We have an outright winner, return that classification
-			switch(winner){
-			case 0: return "S";
-			case 1: return "T";
-			case 2: return "U";
-			case 3: return "V";
-			case 4: return "TX";
-			}
-			
+			return winner;
 		}
-		return null; //Java insists on having it here as the switch statement only covers 0-4
 	}
 	
 	/**
 	 * @author Ben
-	 * Stores the distance between the sample point and a classified point and the classification 
-	 * of the classified point. 
+	 * Scratch buffers for one thread running classifications, so no state is shared between threads
+	 * other than the (read only) test set. 
 	 */
-	private class DistClass{
-		double distance;
-		String classification;
-	
-		DistClass(double d, String c){
-			distance = d;
-			classification = c;
+	private static class Workspace{
+		//The sample being classified and the value each difference is multiplied by in each dimension
+		double[] sample;
+		double[] scale;
+		
+		//Mean of each dimension the values are centred on (Only used for Cosine distance, 0 if already standardised)
+		double[] centre;
+		
+		//Columns of the test set, sample, centre and scale of the dimensions included, packed for the distance kernel
+		int noIncluded;
+		double[][] packedColumns;
+		double[] packedSample;
+		double[] packedCentre;
+		double[] packedScale;
+		
+		//Distance to each row in the block of the test set being scanned
+		double[] distances = new double[ROW_BLOCK];
+		
+		//Packed dimensions in the order rows are abandoned by, and the expected contribution of each
+		int[] order;
+		double[] contribution;
+		
+		//Rows of the block not abandoned
+		int[] rows = new int[ROW_BLOCK];
+		
+		//Number of classifications in the test set, and the frequency of each in the rows used (For Bayes Naive)
+		int noClasses;
+		int[] classCounts = new int[0];
+		
+		//Class id of each of the nearest neighbours, nearest first. Grown when a larger i is used
+		private int[] neighbours = new int[0];
+		
+		//The nearest neighbours found so far
+		NeighbourCandidates candidates = new NeighbourCandidates();
+		
+		//Votes for each classification, indexed by class id
+		int[] tally = new int[0];
+		double[] tallyOverTotal = new double[0];
+		
+		Workspace(int noDimensions){
+			sample = new double[noDimensions];
+			scale = new double[noDimensions];
+			centre = new double[noDimensions];
+			
+			packedColumns = new double[noDimensions][];
+			packedSample = new double[noDimensions];
+			packedCentre = new double[noDimensions];
+			packedScale = new double[noDimensions];
+			
+			order = new int[noDimensions];
+			contribution = new double[noDimensions];
+		}
+		
+		/**
+		 * Pack the included dimensions of the test set and of a sample (With the workspace's centre and scale)
+		 * so the distance kernel only loops over the dimensions used
+		 * @param dimensions A true value indicates this dimension is included
+		 * @param testSet The test set, indexed [dimension][row]
+		 * @param sample The sample, indexed by dimension
+		 * @param kernel The kernel the distances will be found with
+		 */
+		void pack(boolean[] dimensions, double[][] testSet, double[] sample, DistanceKernel kernel){
+			noIncluded = 0;
+			for(int x = 0; x < dimensions.length; x++)
+				if(dimensions[x]){
+					packedColumns[noIncluded] = testSet[x];
+					packedSample[noIncluded] = sample[x];
+					packedCentre[noIncluded] = centre[x];
+					packedScale[noIncluded] = kernel.packScale(x, scale[x]);
+					noIncluded++;
+				}
+		}
+		
+		/**
+		 * Order the packed dimensions by how much each is expected to add to the distance to a row, largest 
+		 * first. After standardising every dimension has a variance of 1, so the difference is expected to be 
+		 * largest in the dimensions where the sample is furthest from the mean: E[(z - Z)^2] = z^2 + 1
+		 * @param dimensions A true value indicates this dimension is included (As packed)
+		 * @param kernel The kernel the sample was packed for
+		 */
+		void orderDimensions(boolean[] dimensions, DistanceKernel kernel){
+			for(int x = 0, k = 0; x < dimensions.length; x++)
+				if(dimensions[x]){
+					//Weight of the dimension (1 unless weighted)
+					double weight = kernel.packScale(x, 1);
+					double z = (packedSample[k] - packedCentre[k]) * packedScale[k];
+					contribution[k] = z * z + weight * weight;
+					k++;
+				}
+			
+			//Insertion sort, there are only a few dimensions
+			for(int k = 0; k < noIncluded; k++){
+				int x = k;
+				while(x > 0 && contribution[order[x - 1]] < contribution[k]){
+					order[x] = order[x - 1];
+					x--;
+				}
+				order[x] = k;
+			}
+		}
+		
+		int[] getNeighbours(int i){
+			if(neighbours.length < i)
+				neighbours = new int[i];
+			return neighbours;
+		}
+		
+		/**
+		 * Set the frequency of each classification in the rows used, growing the tallies if there are more
+		 * classifications than before (Rows added can bring new ones)
+		 * @param counts The frequency of each classification, indexed by class id
+		 */
+		void setClassCounts(int[] counts){
+			noClasses = counts.length;
+			if(classCounts.length < noClasses){
+				classCounts = new int[noClasses];
+				tally = new int[noClasses];
+				tallyOverTotal = new double[noClasses];
+			}
+			System.arraycopy(counts, 0, classCounts, 0, noClasses);
 		}
 	}
 
@@ -420,19 +1028,20 @@ public class TunaKNNClassifier {
 	 * Returns the index of the array location with the highest int value. -1 if two values
 	 * share the highest magnitude
 	 * @param tally The array of int to be polled
+	 * @param length The number of values polled (From the start of the array)
 	 * @return Index of the winning location. -1 for a draw.
 	 */
-	private int arrayWinner(int[] tally){
+	private int arrayWinner(int[] tally, int length){
 		//Check if the tally has an outright winner
 		
 		//True if the highest value occurs more than once
 		boolean equalHighestCount = false;
 		
-		//Assume S has the highest number of votes
+		//Assume the first classification has the highest number of votes
 		int winner = 0;
 		
-		//Check if T, U, V, TX have a higher number of votes
-		for(int x = 1; x < 5; x++){
+		//Check if any other has a higher number of votes
+		for(int x = 1; x < length; x++){
 			if(tally[x] > tally[winner]){
 				winner = x;
 				//We have a current outright winner
@@ -456,18 +1065,19 @@ public class TunaKNNClassifier {
 	 * hence probability)  
 	 * -1 if two values share the highest magnitude
 	 * @param tally The double array to be polled
+	 * @param length The number of values polled (From the start of the array)
 	 * @return Index of the winning location. -1 for a draw.
 	 */
-	private int arrayWinner(double[] tally){
+	private int arrayWinner(double[] tally, int length){
 		
 		//True if the highest probability occurs more than once
 		boolean equalHighestProbability = false;
 		
-		//Assume S has the highest probability
+		//Assume the first classification has the highest probability
 		int winner = 0;
 		
-		//Check if T, U, V, TX have a higher probability
-		for(int x = 1; x < 5; x++){
+		//Check if any other has a higher probability
+		for(int x = 1; x < length; x++){
 			if(tally[x] > tally[winner]){
 				winner = x;
 				//We have a current outright winner
@@ -487,253 +1097,390 @@ public class TunaKNNClassifier {
 	}
 		
 	/**
-	 * Runs all possible combinations of dimensions for KNN-iMin to KNN-iMax using the chosen method. Prints out
-	 * the best percentage along with the configuration that produced it. 
+	 * Runs all possible combinations of dimensions for KNN-iMin to KNN-iMax using the chosen method. 
+	 * Use getBest(method) on the result for the best percentage along with the configuration that produced it. 
 	 * @param iMin i value to test up from and including
 	 * @param iMax i value to test up to and including
 	 * @param method
 	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @return The accuracy of every configuration tested. null if the input is invalid
 	 */
-	public void findBestAccuracy(int iMin, int iMax, int method){
-		/*Tests the KNN-i classifier to find the optimal solution (Both i and the combination
-		 * of dimensions that should be set to true). 
-		 * 
-		 * For each i:
-		 * Checks every combination of dimension selection. (2^n -1 tests as all false excluded).
-		 * 
-		 * It puts every result into a tree map, then returns the highest value. (Best percentage)
-		 * 
-		 * i * (2^n - 1) classifications are performed. 
-		 */
+	public SubsetSearchResults findBestAccuracy(int iMin, int iMax, int method){
+		return searchSubsets(iMin, iMax, new int[]{method});
+	}
+		
+	/**
+	 * Runs all possible configurations for KNN-i using the chosen method. Use getAverage(i, method)
+	 * on the result for the average percentage.
+	 * @param i The i value to test
+	 * @param method
+	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @return The accuracy of every configuration tested. null if the input is invalid
+	 */
+	public SubsetSearchResults findAverageAccuracy(int i, int method){
+		return searchSubsets(i, i, new int[]{method});
+	}
+	
+	/**
+	 * Runs all possible combinations of dimensions for KNN-iMin to KNN-iMax for each of the methods
+	 * given, on the shared worker pool.
+	 * @param iMin i value to test up from and including
+	 * @param iMax i value to test up to and including
+	 * @param methods The methods to test
+	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @return The accuracy of every configuration tested. null if the input is invalid
+	 */
+	public SubsetSearchResults searchSubsets(int iMin, int iMax, int[] methods){
+		return searchSubsets(iMin, iMax, methods, getSharedPool());
+	}
+	
+	/**
+	 * Runs all possible combinations of dimensions for KNN-iMin to KNN-iMax for each of the methods
+	 * given. Each i/dimension subset/method configuration is a separate one left out test, run on the 
+	 * executor given. 
+	 * @param iMin i value to test up from and including
+	 * @param iMax i value to test up to and including
+	 * @param methods The methods to test
+	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @param executor The executor to run the tests on. null to run on the calling thread
+	 * @return The accuracy of every configuration tested. null if the input is invalid
+	 */
+	public SubsetSearchResults searchSubsets(int iMin, int iMax, int[] methods, ExecutorService executor){
+		//Hold off rows being added until finished, so the test set stays the same throughout
+		lock.readLock().lock();
+		try {
+			/*Tests the KNN-i classifier to find the optimal solution (Both i and the combination
+			 * of dimensions that should be set to true). 
+			 * 
+			 * For each i:
+			 * Checks every combination of dimension selection. (2^n -1 tests as all false excluded).
+			 * 
+			 * (iMax - iMin + 1) * (2^n - 1) * methods one left out tests are performed. 
+			 * 
+			 * Subsets are bitmasks (bit n set means dimension n is included), so any number of dimensions 
+			 * up to 62 can be searched.
+			 */
 			
-		//Input sanitation
-		if(iMin > iMax){
-			System.out.println("iMin should be <= to iMax");		
-			return;
+			//Input sanitation
+			if(iMin > iMax){
+				System.out.println("iMin should be <= to iMax");		
+				return null;
+			}
+			
+			if(iMin <= 0){
+				System.out.println("iMin should be >= 1");
+				return null;
+			}
+			
+			if(iMax > (testSetSize - 1)){
+				System.out.println("iMax should be <= " + (testSetSize - 1));
+				return null;
+			}
+			
+			for(int method : methods)
+				if(method < 1 || method > 4){
+					System.out.println("Please enter a valid method 1-4");
+					return null;
+				}
+			
+			if(noDimensions > 62){
+				System.out.println("Too many dimensions to search every subset");
+				return null;
+			}
+			
+			ArrayList<AccuracyResult> results = new ArrayList<AccuracyResult>();
+			
+			try {
+				//The distances kept while walking the subsets are Squared Euclidean
+				if(distanceKernel.isSquaredEuclidean())
+					results = searchSubsetsGrayCode(iMin, iMax, methods, executor);
+				else
+					results = searchSubsetsSeparately(iMin, iMax, methods, executor);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Dimension subset search interrupted", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Dimension subset search failed", e.getCause());
+			}
+			
+			//Every configuration tested can now be answered by oneLeftOutTest straight away
+			if(cachingResults)
+				for(AccuracyResult result : results)
+					cacheResult(result.getMask(), result.getI(), result.getMethod(), result.getAccuracy());
+			
+			return new SubsetSearchResults(results);
+		} finally {
+			lock.readLock().unlock();
 		}
+	}
+	
+	/**
+	 * Searches the dimension subsets with a separate test for each subset, recalculating the distances
+	 * for each one. Used for distance metrics other than Squared Euclidean.
+	 */
+	private ArrayList<AccuracyResult> searchSubsetsSeparately(int iMin, int iMax, int[] methods, ExecutorService executor) 
+			throws InterruptedException, ExecutionException{
+		//Total number of configurations of the dimensions
+		long noCombinations = 1L << noDimensions;
 		
-		if(iMin <= 0){
-			System.out.println("iMin should be >= 1");
-			return;
-		}
+		/*One test for every dimension subset, which scores every i and method from one set of neighbours. 
+		 * Each test runs on one thread, as there are enough tests to fill the pool*/
+		ArrayList<SubsetTest> tests = new ArrayList<SubsetTest>();
 		
-		if(iMax > (testSetSize - 1)){
-			System.out.println("iMax should be <= " + (testSetSize - 1));
-			return;
-		}
+		//Runs through all 2^n combinations - 1 (Excluding all false)
+		for(long mask = 1; mask <= noCombinations - 1; mask++)
+			tests.add(new SubsetTest(iMin, iMax, methods, mask));
 		
-		if(method < 1 || method > 4){
-			System.out.println("Please enter a valid method 1-4");
-			return;
-		}
+		ArrayList<AccuracyResult> results = new ArrayList<AccuracyResult>();
+		
+		if(executor == null)
+			for(SubsetTest test : tests)
+				results.addAll(test.call());
+		else
+			for(Future<ArrayList<AccuracyResult>> result : executor.invokeAll(tests))
+				results.addAll(result.get());
+		
+		return results;
+	}
+	
+	/**
+	 * Searches the dimension subsets in Gray code order, so each subset differs from the one before by a
+	 * single dimension. The distance from the sample left out to every sample is kept, and updated by adding or 
+	 * subtracting the contribution of the dimension that changed instead of being recalculated.
+	 * The samples left out are split between tasks, each of which walks every subset for each of its samples
+	 * in turn, so only one row of distances is held per task.
+	 */
+	private ArrayList<AccuracyResult> searchSubsetsGrayCode(int iMin, int iMax, int[] methods, ExecutorService executor) 
+			throws InterruptedException, ExecutionException{
+		int noSubsets = (int) ((1L << noDimensions) - 1);
+		int noI = iMax - iMin + 1;
 		
+		//One task per thread (Or a single task on this thread), each with an even share of the samples
+		int noTasks = executor == null ? 1 : Math.min(testSetSize, Runtime.getRuntime().availableProcessors());
+		int chunkSize = (testSetSize + noTasks - 1) / noTasks;
 		
-		//Do not reset classifier after each one left out test (No point in doing so
-		//as next iteration will change them again)
-		reset = false;
+		ArrayList<GrayCodeTask> tasks = new ArrayList<GrayCodeTask>();
+		for(int from = 0; from < testSetSize; from += chunkSize)
+			tasks.add(new GrayCodeTask(iMin, iMax, methods, from, Math.min(testSetSize, from + chunkSize)));
 		
-		//Stores the percentage accuracy, along with the i and an index which has
-		//a one-to-one mapping with a configuration of the dimensions.
-		double percentage = 0;
-		int index = 0;
-		int KNN = 0;
+		//Total the correct classifications of each task, indexed [gray code step - 1][i][method]
+		int[] correct = new int[noSubsets * noI * methods.length];
 		
-		//Total number of configurations of the dimensions
-		int noCombinations = (int) Math.pow(2, noDimensions);
+		if(executor == null)
+			for(GrayCodeTask task : tasks)
+				addCounts(correct, task.call());
+		else
+			for(Future<int[]> result : executor.invokeAll(tasks))
+				addCounts(correct, result.get());
+		
+		ArrayList<AccuracyResult> results = new ArrayList<AccuracyResult>();
+		for(int step = 1; step <= noSubsets; step++)
+			for(int i = iMin; i <= iMax; i++)
+				for(int m = 0; m < methods.length; m++){
+					int count = correct[((step - 1) * noI + (i - iMin)) * methods.length + m];
+					results.add(new AccuracyResult(i, methods[m], grayCode(step), noDimensions, ((double) count / testSetSize) * 100));
+				}
 		
-		for(int i = iMin; i <= iMax; i++){
+		return results;
+	}
+	
+	private static void addCounts(int[] total, int[] counts){
+		for(int x = 0; x < total.length; x++)
+			total[x] += counts[x];
+	}
+	
+	/**
+	 * Returns the nth subset in Gray code order. Subsets n and n + 1 differ by the dimension
+	 * given by the lowest set bit of n + 1.
+	 */
+	private static long grayCode(long n){
+		return n ^ (n >>> 1);
+	}
+	
+	/**
+	 * @author Ben
+	 * Walks every dimension subset in Gray code order for each sample in a range of the test set, leaving the 
+	 * sample out. Keeps the squared distance from the sample to every sample of the test set, adding or removing 
+	 * one dimension's contribution for each step. Returns the number classified correctly, indexed
+	 * [gray code step - 1][i][method].
+	 * 
+	 * The distances kept are in fixed point (long), as adding and then subtracting doubles would leave rounding 
+	 * errors behind. They are only used to pick out the rows that could be among the nearest: those rows have
+	 * their distance worked out again by the distance kernel and are ranked exactly as findNeighbours ranks them
+	 * (Same distances, ties in test set order), so every result is the one oneLeftOutTest gives.
+	 */
+	private class GrayCodeTask implements Callable<int[]>{
+		private int iMin;
+		private int iMax;
+		private int[] methods;
+		
+		//Samples from (inclusive) to (exclusive) are left out
+		private int from;
+		private int to;
+		
+		GrayCodeTask(int iMin, int iMax, int[] methods, int from, int to){
+			this.iMin = iMin;
+			this.iMax = iMax;
+			this.methods = methods;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		public int[] call(){
+			int noSubsets = (int) ((1L << noDimensions) - 1);
+			int noI = iMax - iMin + 1;
+			int[] correct = new int[noSubsets * noI * methods.length];
 			
-			//This combination is not tested as last dimension is changed before first run
-			boolean[] dimensions = {false,false,false,false,false,false,false,false};
+			double[][] testSet = rawTestSet();
+			Workspace ws = new Workspace(noDimensions);
+			DistanceKernel kernel = distanceKernel;
 			
-			//Runs through all 2^n combinations - 1 (Excluding all false)
- 			for(int x = 1; x <= noCombinations - 1; x++){	
-				
- 				/*
-				for(int y = 0; y < noDimensions; y++){				
-					if(x % (noCombinations/ Math.pow(2,(y+1))) == 0)
-						dimensions[y] = !dimensions[y];
+			//Largest and smallest value of each dimension, to bound the size of the distances
+			double[] range = new double[noDimensions];
+			for(int n = 0; n < noDimensions; n++){
+				double min = testSet[n][0];
+				double max = testSet[n][0];
+				for(int y = 1; y < testSetSize; y++){
+					min = Math.min(min, testSet[n][y]);
+					max = Math.max(max, testSet[n][y]);
 				}
+				range[n] = max - min;
+			}
+			
+			/*Most the fixed point distance can differ from the kernel's distance (In fixed point units). Each 
+			 * contribution is rounded by up to 1/2, the kernel's sum by up to noDimensions * 2^-53 of the largest
+			 * distance (2^61 units), and the distance of the iMax nearest by up to 2^8 when compared as a double*/
+			long margin = (noDimensions + 1) * 1024L;
+			
+			//Fixed point squared distance from the sample left out to every sample, for the current subset
+			long[] distances = new long[testSetSize];
+			
+			//The dimensions in the current subset
+			boolean[] dimensions = new boolean[noDimensions];
+			boolean[] all = new boolean[noDimensions];
+			Arrays.fill(all, true);
+			
+			for(int h = from; h < to; h++){
+				//Stop early if the search is no longer wanted (e.g. the GUI has moved on)
+				if(Thread.currentThread().isInterrupted())
+					throw new CancellationException("Dimension subset search cancelled");
 				
-				 * This for loop is a loop representation of the code below, 
-				 * but adapted to be dynamic based on the number of dimensions being tested.
-				 * If you know the number of dimensions, the code below is less computationally
-				 * intensive, however would have to be amended if the number of dimensions was not
-				 * 8).
- 				*/
-				
-				//Tests all possible combinations of dimension selection				
-				if(x == 128)
-					dimensions[0] = true;
-				
-				if(x % 64 == 0)
-					dimensions[1] = !dimensions[1];
-				
-				if(x % 32 == 0)
-					dimensions[2] = !dimensions[2];
-				
-				if(x % 16 == 0)
-					dimensions[3] = !dimensions[3];
-				
-				if(x % 8 == 0)
-					dimensions[4] = !dimensions[4];
+				//The sample, 1 / SD of every dimension and the frequency of each classification without the sample
+				leaveOut(all, testSet, h, ws);
 				
-				if(x % 4 == 0)
-					dimensions[5] = !dimensions[5];
+				//Largest distance possible with every dimension included
+				double bound = 0;
+				for(int n = 0; n < noDimensions; n++)
+					bound += Math.pow(range[n] * ws.scale[n], 2);
 				
-				if(x % 2 == 0)
-					dimensions[6] = !dimensions[6];
+				//Power of 2 the contributions are multiplied by before being rounded, leaving room for the bound
+				int exponent = 60 - Math.getExponent(Math.max(bound, Double.MIN_NORMAL));
 				
-				dimensions[7] = !dimensions[7];
+				Arrays.fill(distances, 0);
+				Arrays.fill(dimensions, false);
+				int expectedResult = unstandardisedTestSet.getClassId(h);
 				
-				//Calculate for this i and x
-				/*Mean/Sd/Scaled data does not need to be reset as we will not be doing 
-				a classification and altering the test set before the next classification */
-				double accuracy = oneLeftOutTest(dimensions, i,method);
-				if(accuracy > percentage){
-					percentage = accuracy;
-					index = x;
-					KNN = i;
+				for(int step = 1; step <= noSubsets; step++){
+					//The one dimension that changes from the last subset
+					int n = Long.numberOfTrailingZeros(step);
+					dimensions[n] = !dimensions[n];
+					
+					//Add or remove this dimension's contribution to the distance to every sample
+					double sample = ws.sample[n];
+					double rowScale = ws.scale[n];
+					double[] column = testSet[n];
+					if(dimensions[n])
+						for(int y = 0; y < testSetSize; y++)
+							distances[y] += Math.round(Math.scalb(Math.pow(Math.abs((sample - column[y]) * rowScale), 2), exponent));
+					else
+						for(int y = 0; y < testSetSize; y++)
+							distances[y] -= Math.round(Math.scalb(Math.pow(Math.abs((sample - column[y]) * rowScale), 2), exponent));
+					
+					//Fixed point distance of the iMax nearest
+					NeighbourCandidates nearest = ws.candidates;
+					nearest.reset(iMax);
+					for(int y = 0; y < testSetSize; y++)
+						if(y != h && distances[y] <= nearest.worstDistance())
+							nearest.offer(distances[y], y);
+					long limit = (long) nearest.worstDistance() + margin;
+					
+					//Rank every row that could be one of the iMax nearest by its exact distance
+					ws.pack(dimensions, testSet, ws.sample, kernel);
+					nearest.reset(iMax);
+					for(int y = 0; y < testSetSize; y++)
+						if(y != h && distances[y] <= limit)
+							nearest.offer(kernel.distance(ws.packedColumns, ws.packedSample, ws.packedCentre, ws.packedScale, ws.noIncluded, y), y);
+					
+					setNeighbours(nearest, iMax, ws);
+					
+					for(int i = iMin; i <= iMax; i++)
+						for(int m = 0; m < methods.length; m++)
+							//If correct, increment the correct counter.
+							if(vote(i, methods[m], ws) == expectedResult)
+								correct[((step - 1) * noI + (i - iMin)) * methods.length + m]++;
 				}
 			}
+			
+			return correct;
 		}
-		
-		//Put together the list of dimensions that produced the optimal solution
-		String optimalDimensions = "Dimensions: ";
-
-		if(index >= 127) //Mean depth set to true on 128
-			optimalDimensions += " Mean Depth/";
-
-		if((index / 64) % 2 != 0) //Median depth switched on multiples of 64.
-			optimalDimensions += " Median Depth/";
-
-		if((index / 32) % 2 != 0)
-			optimalDimensions += "SD Depth/";
-
-		if((index / 16) % 2 != 0)
-			optimalDimensions += "IQR Depth/";
-
-		if((index / 8) % 2 != 0)
-			optimalDimensions += "Mean Temp/";
-
-		if((index / 4) % 2 != 0)
-			optimalDimensions += "Median Temp/";
-
-		if((index / 2) % 2 != 0)
-			optimalDimensions += "SD Temp/";
-
-		if(index % 2 != 0) //IQR temp switched every iteration
-			optimalDimensions += "IQR Temp/";
-
-		//Print out the highest percentage, along with the associated i
-		System.out.printf("Best accuracy achieved: %.2f \n",percentage);
-		System.out.println("KNN-" + KNN);
-
-		//Print out the associated dimension combination
-		System.out.println(optimalDimensions);
-
-		//The values should be reset after a call to one left out test from now on
-		reset = true;
-				
-		resetClassifierAllDimensions();
 	}
-		
+	
 	/**
-	 * Runs all possible configurations for KNN-i using the chosen method. Prints out
-	 * the average percentage.
-	 * @param iMax The i value to test
-	 * @param method
-	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @author Ben
+	 * One left out tests of a dimension subset for a range of i and several methods. The iMax nearest
+	 * neighbours of each sample are found once, and the nearest i of them used to score each i and method,
+	 * rather than recalculating every distance for each configuration. 
 	 */
-	public void findAverageAccuracy(int i, int method){
-		/*Tests the KNN-i classifier to find the average percentage
-		 * 
-		 * For i:
-		 * Checks every combination of dimension selection. (2^n -1 tests as all false excluded).
-		 * 
-		 * It puts every result into an ArrayList, then returns the average percentage.
-		 * 
-		 * (2^n - 1) classifications are performed. 
-		 */
-		
-		//Input sanitation
-		if(i > testSetSize || i <= 0){
-			System.out.println("Incorrect i -  Max: " + (testSetSize - 1) + " Min: 1");	
-			return;
+	private class SubsetTest implements Callable<ArrayList<AccuracyResult>>{
+		private int iMin;
+		private int iMax;
+		private int[] methods;
+		private long mask;
+		
+		SubsetTest(int iMin, int iMax, int[] methods, long mask){
+			this.iMin = iMin;
+			this.iMax = iMax;
+			this.methods = methods;
+			this.mask = mask;
 		}
-		
-		if(method < 1 || method > 4){
-			System.out.println("Please enter a valid method 1-4");
-			return;
-		}
-		
-		//Do not rescale the data after each one left out test (No point in doing so
-		//as next iteration will change them again)
-		reset = false;
-
-		//Stores the percentages
-		ArrayList<Double> percentages = new ArrayList<Double>();
-
-		//No dimensions tested (This combination is not tested as last dimension
-		//is changed before first run
-		boolean[] dimensions = {false,false,false,false,false,false,false,false};
-
-		//Total number of configurations of the dimensions
-		int noCombinations = (int) Math.pow(2, noDimensions);
-
-		//Runs through all 2^n combinations (Excluding all false)
-		for(int x = 1; x <= noCombinations - 1; x++){	
-
-			/*
-					for(int y = 0; y < noDimensions; y++){				
-						if(x % (noCombinations/ Math.pow(2,(y+1))) == 0)
-							dimensions[y] = !dimensions[y];
-					}
-
-			 * This for loop is a loop representation of the code below, 
-			 * but adapted to be dynamic based on the number of dimensions being tested.
-			 * If you know the number of dimensions, the code below is less computationally
-			 * intensive, however would have to be amended if the number of dimensions was not
-			 * 8).
-			 */
-
-			//Tests all possible combinations of dimension selection				
-			if(x == 128)
-				dimensions[0] = true;
-
-			if(x % 64 == 0)
-				dimensions[1] = !dimensions[1];
-
-			if(x % 32 == 0)
-				dimensions[2] = !dimensions[2];
-
-			if(x % 16 == 0)
-				dimensions[3] = !dimensions[3];
-
-			if(x % 8 == 0)
-				dimensions[4] = !dimensions[4];
-
-			if(x % 4 == 0)
-				dimensions[5] = !dimensions[5];
-
-			if(x % 2 == 0)
-				dimensions[6] = !dimensions[6];
-
-			dimensions[7] = !dimensions[7];
-
-			//Add the accuracy to the arraylist
-			percentages.add(oneLeftOutTest(dimensions, i,method));
 
+		@Override
+		public ArrayList<AccuracyResult> call() {
+			boolean[] dimensions = AccuracyResult.maskDimensions(mask, noDimensions);
+			
+			//Number of correct classifications for each i and method
+			int[][] correct = new int[iMax - iMin + 1][methods.length];
+			
+			//Raw test set, standardised on the fly
+			double[][] testSet = rawTestSet();
+			Workspace ws = new Workspace(noDimensions);
+			
+			//For every classified sample we have in the testset
+			for(int sampleNo = 0; sampleNo < testSetSize; sampleNo++){
+				//Get the classification we expect for this sample
+				int expectedResult = unstandardisedTestSet.getClassId(sampleNo);
+				
+				leaveOut(dimensions, testSet, sampleNo, ws);
+				
+				//The nearest i neighbours for every i tested
+				findNeighbours(dimensions, testSet, sampleNo, iMax, ws);
+				
+				for(int i = iMin; i <= iMax; i++)
+					for(int m = 0; m < methods.length; m++)
+						//If correct, increment the correct counter.
+						if(vote(i, methods[m], ws) == expectedResult)
+							correct[i - iMin][m]++;
+			}
+			
+			//In the order i, then method
+			ArrayList<AccuracyResult> results = new ArrayList<AccuracyResult>();
+			for(int i = iMin; i <= iMax; i++)
+				for(int m = 0; m < methods.length; m++)
+					results.add(new AccuracyResult(i, methods[m], mask, noDimensions, ((double) correct[i - iMin][m] / testSetSize) * 100));
+			
+			return results;
 		}
-
-		//Print out the average percentage
-		System.out.printf("Average percentage for KNN-%d Method: %d is %.2f \n", i, method,ArrayListMath.mean(percentages));
-
-		//The classifier should be reset after each call to one left out test from now on
-		reset = true;
-		
-		resetClassifierAllDimensions();
-		
 	}
 	
 	
@@ -741,7 +1488,8 @@ public class TunaKNNClassifier {
 	//---- ONE LEFT OUT TESTING ----
 	
 	/**Checks the number of correct classifications produced by the current configuration for the 
-	 * given i.
+	 * given i. The sample left out is masked rather than removed, so the test set is never altered.
+	 * Large test sets are split over the shared worker pool.
 	 * @param dimensions A true value indicates that this dimension will be included. 
 	 * 0-Mean Depth, 1-Median Depth, 2-SD Depth, 3-IQR Depth, 4-Mean Temp, 5-Median Temp, 6-SD Temp, 7-IQR Temp.
 	 * @param i KNN-i
@@ -750,174 +1498,438 @@ public class TunaKNNClassifier {
 	 * @return Accuracy of the current dimension selection and i value
 	 */
 	public double oneLeftOutTest(boolean[] dimensions, int i, int method){
-
-		//Number of correct classifications
-	    int correct = 0;
-	    
-	    //For every classified sample we have in the testset
-		for(int sampleNo = 0; sampleNo < testSetSize; sampleNo++){
-	    	
-			//Get the classification we expect for this sample
-			String expectedResult = classification.get(sampleNo);
-			
-			//Assign this sample as the values we wish to test
-			getSample(sampleNo);
-			
-			//Remove it from the testset, as this is the one left out
-			removeSample(sampleNo);
-			
-			/*Work out the mean/Sd values of the testset and scale the testset (For selected dimensions)
-			  now the sample has been removed*/
-			calculateMeanAndSDValues(dimensions);
-			standardiseTestSet(dimensions);
-						
-			//If correct, increment the correct counter.
-			if(classify(dimensions,i,method).matches(expectedResult))
-				correct++;
-
-			//Put the previously removed sample values back into the testset
-			replaceSampleValues(sampleNo, expectedResult);
+		if(testSetSize < PARALLEL_THRESHOLD)
+			//Not worth handing out to other threads
+			return oneLeftOutTest(dimensions, i, method, null);
+		else
+			return oneLeftOutTest(dimensions, i, method, getSharedPool());
+	}
+	
+	/**Checks the number of correct classifications produced by the current configuration for the 
+	 * given i, spreading the samples left out over the executor given. Each task has its own workspace
+	 * and only reads the test set, so the result is identical to running on one thread.
+	 * @param dimensions A true value indicates that this dimension will be included. 
+	 * 0-Mean Depth, 1-Median Depth, 2-SD Depth, 3-IQR Depth, 4-Mean Temp, 5-Median Temp, 6-SD Temp, 7-IQR Temp.
+	 * @param i KNN-i
+	 * @param method
+	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @param executor The executor to run the tasks on. null to run on the calling thread
+	 * @return Accuracy of the current dimension selection and i value
+	 */
+	public double oneLeftOutTest(boolean[] dimensions, int i, int method, ExecutorService executor){
+		//Hold off rows being added until finished, so the test set stays the same throughout
+		lock.readLock().lock();
+		try {
+			//Answer straight away if this configuration has been tested already
+			Double cached = cachedResult(toMask(dimensions), i, method);
+			if(cached != null)
+				return cached;
+			
+			//Number of correct classifications
+		    int correct = 0;
+			
+		    //Copied so the caller changing the array does not affect tasks still running
+		    boolean[] dims = dimensions.clone();
+			
+			if(executor == null){
+				correct = new LeaveOneOutTask(dims, i, method, 0, testSetSize).call();
+			}else{
+				//Split the test set into chunks of samples to be left out
+				int noChunks = Runtime.getRuntime().availableProcessors() * CHUNKS_PER_THREAD;
+				int chunkSize = Math.max(1, (testSetSize + noChunks - 1) / noChunks);
+			
+				ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+				for(int from = 0; from < testSetSize; from += chunkSize)
+					results.add(executor.submit(new LeaveOneOutTask(dims, i, method, from, Math.min(testSetSize, from + chunkSize))));
+			
+				//Total the correct classifications of each chunk
+				try {
+					for(Future<Integer> result : results)
+						correct += result.get();
+				} catch (InterruptedException e) {
+					//Stop the remaining chunks and pass on the interrupt
+					for(Future<Integer> result : results)
+						result.cancel(true);
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("One left out test interrupted", e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("One left out test failed", e.getCause());
+				}
+			}
+			
+			//Return the percentage of correct classifications we achieved
+			double accuracy = ((double) correct / testSetSize) * 100;
+			cacheResult(toMask(dims), i, method, accuracy);
+			return accuracy;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**Checks how well the LSH index (With the settings given to setApproximateSearch) finds the neighbours for 
+	 * a configuration. Each sample is left out and classified with the exact neighbours, as oneLeftOutTest does, 
+	 * and again with only the rows in its buckets. Large test sets are split over the shared worker pool.
+	 * @param dimensions A true value indicates that this dimension will be included. 
+	 * 0-Mean Depth, 1-Median Depth, 2-SD Depth, 3-IQR Depth, 4-Mean Temp, 5-Median Temp, 6-SD Temp, 7-IQR Temp.
+	 * @param i KNN-i
+	 * @param method
+	 * 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @return The accuracy of each search and how often they agree. null if the input is invalid
+	 */
+	public ApproximateSearchResult evaluateApproximateSearch(boolean[] dimensions, int i, int method){
+		//Hold off rows being added until finished, so the test set stays the same throughout
+		lock.readLock().lock();
+		try {
+			//Input sanitation
+			if(i >= testSetSize || i <= 0){
+				System.out.println("Incorrect i -  Max: " + (testSetSize - 1) + " Min: 1");	
+				return null;
+			}
+			
+			if(method < 1 || method > 4){
+				System.out.println("Please enter a valid method 1-4");
+				return null;
+			}
+			
+			if(!distanceKernel.isSquaredEuclidean()){
+				System.out.println("Approximate search only finds Squared Euclidean neighbours");
+				return null;
+			}
+			
+			boolean[] dims = dimensions.clone();
+			
+			LSHIndex index;
+			synchronized(this){
+				index = new LSHIndex(model.getStandardisedTestSet(dims), testSetSize, toIncluded(dims), 
+									 modelMeans(), modelSDs(), lshTables, lshProjections, lshWidth, lshProbes);
+			}
+			
+			//Exact correct, approximate correct, agreeing, rows checked, exact time and approximate time (ns)
+			long[] totals = new long[6];
+			
+			if(testSetSize < PARALLEL_THRESHOLD)
+				totals = new ApproximateLeaveOneOutTask(dims, i, method, index, 0, testSetSize).call();
+			else{
+				ExecutorService executor = getSharedPool();
+				int noChunks = Runtime.getRuntime().availableProcessors() * CHUNKS_PER_THREAD;
+				int chunkSize = Math.max(1, (testSetSize + noChunks - 1) / noChunks);
+				
+				ArrayList<Future<long[]>> results = new ArrayList<Future<long[]>>();
+				for(int from = 0; from < testSetSize; from += chunkSize)
+					results.add(executor.submit(new ApproximateLeaveOneOutTask(dims, i, method, index, from, Math.min(testSetSize, from + chunkSize))));
+				
+				try {
+					for(Future<long[]> result : results){
+						long[] chunk = result.get();
+						for(int x = 0; x < totals.length; x++)
+							totals[x] += chunk[x];
+					}
+				} catch (InterruptedException e) {
+					for(Future<long[]> result : results)
+						result.cancel(true);
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Approximate search evaluation interrupted", e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Approximate search evaluation failed", e.getCause());
+				}
+			}
+			
+			//Percentages as oneLeftOutTest gives them
+			double exactAccuracy = ((double) totals[0] / testSetSize) * 100;
+			cacheResult(toMask(dims), i, method, exactAccuracy);
+			
+			return new ApproximateSearchResult(i, method, toMask(dims), noDimensions, 
+					((double) totals[1] / testSetSize) * 100, exactAccuracy, ((double) totals[2] / testSetSize) * 100,
+					(double) totals[3] / testSetSize, totals[4] / 1e6, totals[5] / 1e6);
+		} finally {
+			lock.readLock().unlock();
 		}
-		
-		
-		if(reset)	
-			//Return classifier to previous state 
-			resetClassifierAllDimensions();
-		
-		//Return the percentage of correct classifications we achieved
-		return ((double) correct / unstandardisedTestSet.get(0).size()) * 100;
 	}
 	
 	/**
-	 * Assigns the sample from the test set to the double[] for the sample data
-	 * @param sampleNo The test set index of the sample to be set as sample data
+	 * Returns the accuracy found for a configuration of the current test set, null if it has not been tested
+	 * @param mask The dimensions included. Bit n set means dimension n is included
+	 * @param i KNN-i
+	 * @param method The method tested
 	 */
-	private void getSample(int sampleNo){
-		for(int x = 0; x < 8; x++)
-			unstandardisedSampleData[x] = unstandardisedTestSet.get(x).get(sampleNo);
+	private Double cachedResult(long mask, int i, int method){
+		if(!cachingResults)
+			return null;
+		synchronized(resultCache){
+			return resultCache.get(new ResultKey(mask, i, method));
+		}
 	}
 	
 	/**
-	 * Removes the sample from the testset.
-	 * @param sampleNo The index of the sample to be removed
+	 * Returns true if oneLeftOutTest would answer this configuration from the cache
+	 * @param dimensions The dimensions included
+	 * @param i KNN-i
+	 * @param method The method tested
 	 */
-	private void removeSample(int sampleNo){
-		for(int x = 0; x < unstandardisedTestSet.size(); x++)
-			unstandardisedTestSet.get(x).remove(sampleNo);
-		
-		String classif = classification.get(sampleNo);
-		
-		classification.remove(sampleNo);
-		
-		//One left out on each iteration
-	    testSetSize --;
-		
-		//Maintain count of each classification 
-		if(classif.matches("S")){
-			noOfEachClass[0] --;
-			return;
+	boolean isCached(boolean[] dimensions, int i, int method){
+		lock.readLock().lock();
+		try {
+			return cachedResult(toMask(dimensions), i, method) != null;
+		} finally {
+			lock.readLock().unlock();
 		}
-		
-		if(classif.matches("T")){
-			noOfEachClass[1] --;
+	}
+	
+	/**
+	 * Keep the accuracy found for a configuration of the current test set
+	 */
+	private void cacheResult(long mask, int i, int method, double accuracy){
+		if(!cachingResults)
 			return;
+		synchronized(resultCache){
+			resultCache.put(new ResultKey(mask, i, method), accuracy);
 		}
-		
-		if(classif.matches("U")){
-			noOfEachClass[2] --;
-			return;
+	}
+	
+	/**
+	 * @author Ben
+	 * A configuration tested: the dimensions included, i and the method.
+	 */
+	private static class ResultKey{
+		private long mask;
+		private int i;
+		private int method;
+		
+		ResultKey(long mask, int i, int method){
+			this.mask = mask;
+			this.i = i;
+			this.method = method;
 		}
 		
-		if(classif.matches("V")){
-			noOfEachClass[3] --;
-			return;
+		@Override
+		public boolean equals(Object o){
+			if(!(o instanceof ResultKey))
+				return false;
+			
+			ResultKey key = (ResultKey) o;
+			return mask == key.mask && i == key.i && method == key.method;
 		}
 		
-		if(classif.matches("TX")){
-			noOfEachClass[4] --;
-			return;
+		@Override
+		public int hashCode(){
+			return (int) (mask ^ (mask >>> 32)) * 961 + i * 31 + method;
 		}
+	}
+	
+	/**
+	 * Returns the worker pool shared by all classifiers, creating it if this is the first use.
+	 * Threads are daemons so the pool does not keep the program running.
+	 */
+	private static synchronized ExecutorService getSharedPool(){
+		if(sharedPool == null)
+			sharedPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "KNN worker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 		
-		
+		return sharedPool;
 	}
 	
 	/**
-	 * Returns the sample to the test set in the specified index
-	 * @param sampleNo The index where the sample shall be returned to within the tes tset
-	 * @param expectedResult The expert classification for this sample
+	 * Set up the workspace to classify a sample of the test set, as if it had been removed from the test set.
+	 * @param dimensions A true value indicates that this dimension will be included.
+	 * @param testSet The raw test set, indexed [dimension][row]
+	 * @param sampleNo The index of the sample left out
+	 * @param ws The workspace to set the sample, scale and frequency of each classification in
 	 */
-	private void replaceSampleValues(int sampleNo, String expectedResult){
-		//Replace values at index they were removed from
+	private void leaveOut(boolean[] dimensions, double[][] testSet, int sampleNo, Workspace ws){
+		/*Work out the SD values of the testset (For selected dimensions) as if the 
+		 * sample had been removed. O(1) per dimension from the full test set statistics*/
 		for(int x = 0; x < noDimensions; x++)
-			unstandardisedTestSet.get(x).add(sampleNo, unstandardisedSampleData[x]);
-	
-		//Replace the classification at the same index
-		classification.add(sampleNo, expectedResult);	
-		
-		//Back to original number of classified points
-		testSetSize++;
+			if(dimensions[x]){
+				ws.sample[x] = testSet[x][sampleNo];
+				ws.scale[x] = 1 / testSetStats.sdWithout(x, ws.sample[x]);
 				
-		//Maintain count of each classification 
-		if(expectedResult.matches("S")){
-			noOfEachClass[0] ++;
-			return;
-		}
-		
-		if(expectedResult.matches("T")){
-			noOfEachClass[1] ++;
-			return;
-		}
-		
-		if(expectedResult.matches("U")){
-			noOfEachClass[2] ++;
-			return;
-		}
+				//Mean without the sample (Cosine distance measures angles from it)
+				ws.centre[x] = testSetStats.meanWithout(x, ws.sample[x]);
+			}
 		
-		if(expectedResult.matches("V")){
-			noOfEachClass[3] ++;
-			return;
-		}
+		leaveOutClassCounts(sampleNo, ws);
+	}
+	
+	/**
+	 * Set the frequency of each classification in the workspace, as if a sample had been removed from the test set.
+	 * @param sampleNo The index of the sample left out
+	 * @param ws The workspace to set the frequency of each classification in
+	 */
+	private void leaveOutClassCounts(int sampleNo, Workspace ws){
+		//The sample left out is not counted for Bayes Naive
+		ws.setClassCounts(noOfEachClass);
 		
-		if(expectedResult.matches("TX")){
-			noOfEachClass[4] ++;
-			return;
-		}
+		int expectedClassId = unstandardisedTestSet.getClassId(sampleNo);
+		if(expectedClassId >= 0)
+			ws.classCounts[expectedClassId]--;
 	}
 	
 	/**
-	 * Update the arrays holding Mean and Standard Deviation for the testSet
-	 * that has been read in from file and classified by experts. Only done 
-	 * in dimensions selected
-	 * @param dimensions A boolean array indicating (By being true) which dimensions should be standardised.
+	 * Returns the raw test set columns. Standardised on the fly, as (x - mean) / sd - (y - mean) / sd = (x - y) / sd.
+	 * Rows the same raw distance from the sample (e.g. either side of it in a Median or IQR dimension) are then
+	 * exactly the same distance away, so are ordered by index. Standardising every value first, as the test set
+	 * used to be, ordered them by rounding error instead, so a few one left out accuracies differ from then.
 	 */
-	private void calculateMeanAndSDValues(boolean[] dimensions){
-		//Calculate the mean and standard deviation for each dimension
-		for(int x = 0; x < noDimensions; x++){
-			//No need to do the calculations for dimensions we are not concerned about
-			if(dimensions[x]){
-				meanValues[x] = ArrayListMath.mean(unstandardisedTestSet.get(x));
-				sdValues[x] = ArrayListMath.standardDeviation(unstandardisedTestSet.get(x), meanValues[x]);
+	private double[][] rawTestSet(){
+	    double[][] testSet = new double[noDimensions][];
+	    for(int x = 0; x < noDimensions; x++)
+	    	testSet[x] = unstandardisedTestSet.getColumn(x);
+	    return testSet;
+	}
+	
+	/**
+	 * @author Ben
+	 * Leaves out each sample in a range of the test set in turn and classifies it. Returns the number 
+	 * classified correctly.
+	 */
+	private class LeaveOneOutTask implements Callable<Integer>{
+		private boolean[] dimensions;
+		private int i;
+		private int method;
+		
+		//Samples from (inclusive) to (exclusive) are left out
+		private int from;
+		private int to;
+		
+		LeaveOneOutTask(boolean[] dimensions, int i, int method, int from, int to){
+			this.dimensions = dimensions;
+			this.i = i;
+			this.method = method;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		public Integer call(){
+			//Number of correct classifications
+		    int correct = 0;
+		    
+		    //Raw test set, standardised on the fly
+		    double[][] testSet = rawTestSet();
+		    
+		    //This task's own buffers. The sample, 1 / SD of each dimension without the sample left out,
+		    //and the frequency of each classification without the sample left out are held here
+		    Workspace ws = new Workspace(noDimensions);
+		    
+		    //For every classified sample in this task's range
+			for(int sampleNo = from; sampleNo < to; sampleNo++){
+				
+				//Stop early if the test is no longer wanted (e.g. the GUI has moved on to another configuration)
+				if(Thread.currentThread().isInterrupted())
+					throw new CancellationException("One left out test cancelled");
+		    	
+				//Get the classification we expect for this sample
+				int expectedResult = unstandardisedTestSet.getClassId(sampleNo);
+				
+				leaveOut(dimensions, testSet, sampleNo, ws);
+							
+				//If correct, increment the correct counter.
+				if(classify(dimensions, testSet, sampleNo, i, method, ws) == expectedResult)
+					correct++;
 			}
+			
+			return correct;
 		}
 	}
 	
 	/**
-	 * Update the standardised values being stored in selected dimensions (Does not calculate mean/sd, uses stored values) 
-	 * @param dimensions A boolean array indicating (By being true) which dimensions should be standardised.
+	 * @author Ben
+	 * Leaves out each sample in a range of the test set in turn and classifies it with the exact neighbours and
+	 * with the rows found by an LSH index. The rows found are ranked by the same distances as the exact search,
+	 * so the two only differ where the index misses a neighbour. Returns the number classified correctly by 
+	 * each, the number they agree on, the rows checked and the time taken by each (ns).
 	 */
-	private void standardiseTestSet(boolean[] dimensions){
-		//Scale the data for each dimension by the method of standard score
-		
-		//New list of arraylists created so unstandardised double objects are not affected and still accessible
-		standardisedTestSet = new ArrayList<ArrayList<Double>>();
+	private class ApproximateLeaveOneOutTask implements Callable<long[]>{
+		private boolean[] dimensions;
+		private int i;
+		private int method;
+		private LSHIndex index;
+		
+		//Samples from (inclusive) to (exclusive) are left out
+		private int from;
+		private int to;
+		
+		ApproximateLeaveOneOutTask(boolean[] dimensions, int i, int method, LSHIndex index, int from, int to){
+			this.dimensions = dimensions;
+			this.i = i;
+			this.method = method;
+			this.index = index;
+			this.from = from;
+			this.to = to;
+		}
 		
-		//Scale each list of data 
-		for(int x = 0; x < noDimensions; x++)
-			//No need to do the calculations for dimensions we are not concerned about
-			if(dimensions[x])
-				standardisedTestSet.add(ArrayListMath.scaleDataByStandardScore(unstandardisedTestSet.get(x), meanValues[x], sdValues[x]));
-			else
-				standardisedTestSet.add(new ArrayList<Double>());
+		@Override
+		public long[] call(){
+			long[] totals = new long[6];
+			
+		    //Raw test set, standardised on the fly
+		    double[][] testSet = rawTestSet();
+		    
+		    Workspace ws = new Workspace(noDimensions);
+		    DistanceKernel kernel = distanceKernel;
+		    
+		    //The sample standardised as the index's test set is, and the rows in its buckets
+		    double[] standardised = new double[noDimensions];
+		    LSHIndex.Probe probe = new LSHIndex.Probe();
+		    
+			for(int sampleNo = from; sampleNo < to; sampleNo++){
+				
+				//Stop early if the evaluation is no longer wanted
+				if(Thread.currentThread().isInterrupted())
+					throw new CancellationException("Approximate search evaluation cancelled");
+				
+				int expectedResult = unstandardisedTestSet.getClassId(sampleNo);
+				leaveOut(dimensions, testSet, sampleNo, ws);
+				
+				long start = System.nanoTime();
+				int exact = classify(dimensions, testSet, sampleNo, i, method, ws);
+				long middle = System.nanoTime();
+				
+				for(int x = 0; x < noDimensions; x++)
+					if(dimensions[x])
+						standardised[x] = model.standardise(x, ws.sample[x]);
+				index.collect(standardised, probe);
+				
+				//Rank the rows found, skipping the sample left out
+				ws.pack(dimensions, testSet, ws.sample, kernel);
+				NeighbourCandidates nearest = ws.candidates;
+				nearest.reset(i);
+				for(int x = 0; x < probe.getCount(); x++){
+					int row = probe.getRow(x);
+					if(row != sampleNo)
+						nearest.offer(kernel.distance(ws.packedColumns, ws.packedSample, ws.packedCentre, ws.packedScale, ws.noIncluded, row), row);
+				}
+				
+				int approximate;
+				if(nearest.isFull()){
+					setNeighbours(nearest, i, ws);
+					approximate = vote(i, method, ws);
+					totals[3] += probe.getCount();
+				}else{
+					//Too few rows in the buckets, so every row is checked (As the index does)
+					approximate = classify(dimensions, testSet, sampleNo, i, method, ws);
+					totals[3] += testSetSize;
+				}
+				long end = System.nanoTime();
+				
+				if(exact == expectedResult)
+					totals[0]++;
+				if(approximate == expectedResult)
+					totals[1]++;
+				if(approximate == exact)
+					totals[2]++;
+				totals[4] += middle - start;
+				totals[5] += end - middle;
+			}
+			
+			return totals;
+		}
 	}
 	
 	//---- END OF ONE LEFT OUT METHODS ----
@@ -0,0 +1,296 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author Ben
+ * The trained data a TunaKNNClassifier classifies against: the expert-classified test set, the mean and
+ * standard deviation of each dimension, the standardised test set and the number of each classification.
+ * Everything is worked out when the model is created and never changed afterwards, so one model can be
+ * shared by any number of classifiers and threads. Each standardised column is only worked out when it is
+ * first used, and kept (Least recently used dropped first) while the columns kept fit in a memory budget.
+ * Columns already kept are read without locking, so threads classifying at the same time do not wait on
+ * each other. Only working out a column and dropping columns take the lock.
+ */
+public class TunaKNNModel {
+
+	//Memory the standardised columns kept may use, unless set otherwise (Bytes)
+	public static final long DEFAULT_STANDARDISED_BUDGET = 256L << 20;
+
+	//Number of dimensions in the test set
+	private final int noDimensions;
+
+	//Number of expert-classified points of data we have in the test set(Classified point = 12 hour period)
+	private final int testSetSize;
+
+	//Number of points for each classification, indexed by class id (Stored for Bayes Naive classifier)
+	private final int[] noOfEachClass;
+
+	//Holds the raw data read in from the file (Unstandardised test set), one column per dimension
+	private final FeatureMatrix unstandardisedTestSet;
+
+	//Mean and sum of squares of each dimension, used to find leave-one-out mean/SD values
+	private final ColumnStats testSetStats;
+
+	//Information about each dimension
+	private final double[] meanValues;
+	private final double[] sdValues;
+
+	//Standardised columns kept, indexed by dimension (null if not worked out or dropped)
+	private final AtomicReferenceArray<double[]> standardisedColumns;
+
+	/*When each column was last used, as the number of columns worked out by then. Only changes on a
+	 * read after another column has been worked out, so reads rarely write to memory shared between threads*/
+	private final AtomicLongArray lastUsed;
+	private volatile long columnsWorkedOut = 0;
+
+	//Memory used and allowed for the standardised columns kept (Bytes, only used holding the lock)
+	private long standardisedBytes = 0;
+	private long standardisedBudget = DEFAULT_STANDARDISED_BUDGET;
+
+	/**
+	 * Reads the test set in from file and trains a model on it
+	 * @param filename The file holding the expert-classified test set
+	 */
+	public TunaKNNModel(String filename){
+		this(TunaDataFileRead.readMatrix(filename));
+	}
+
+	/**
+	 * Trains a model on the test set passed in. The matrix must not be altered afterwards.
+	 * @param testSet The expert-classified test set
+	 */
+	public TunaKNNModel(FeatureMatrix testSet){
+		this(testSet, new ColumnStats(testSet));
+	}
+
+	/**
+	 * Trains a model on the test set passed in, using statistics of it that have already been
+	 * calculated (e.g. stored in a binary data file). The matrix must not be altered afterwards.
+	 * @param testSet The expert-classified test set
+	 * @param stats The statistics of every row of the test set
+	 */
+	public TunaKNNModel(FeatureMatrix testSet, ColumnStats stats){
+		this(testSet, stats, countClassifications(testSet));
+	}
+
+	/**
+	 * @param classCounts The number of rows of the test set with each classification
+	 */
+	private TunaKNNModel(FeatureMatrix testSet, ColumnStats stats, int[] classCounts){
+		unstandardisedTestSet = testSet;
+		noDimensions = testSet.getNoDimensions();
+		testSetSize = testSet.size();
+
+		//The mean and standard deviation for each dimension
+		testSetStats = stats;
+		meanValues = new double[noDimensions];
+		sdValues = new double[noDimensions];
+
+		for(int x = 0; x < noDimensions; x++){
+			meanValues[x] = testSetStats.getMean(x);
+			sdValues[x] = testSetStats.getSD(x);
+		}
+
+		noOfEachClass = classCounts;
+
+		standardisedColumns = new AtomicReferenceArray<double[]>(noDimensions);
+		lastUsed = new AtomicLongArray(noDimensions);
+	}
+
+	/**
+	 * Count the frequency of each classification for Bayes Naive in the test set
+	 */
+	private static int[] countClassifications(FeatureMatrix testSet){
+		int[] counts = new int[testSet.getClassDictionary().size()];
+
+		for(int y = 0; y < testSet.size(); y++){
+			int classId = testSet.getClassId(y);
+
+			//Rows without a classification are not counted
+			if(classId >= 0)
+				counts[classId]++;
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Returns a model of this test set with more expert-classified rows added. The mean/SD and the number
+	 * of each classification are updated from the new rows alone, and the rows are stored after the existing
+	 * ones without copying them where possible. This model is not changed.
+	 * @param values The value of each dimension of each new row, indexed [row][dimension]
+	 * @param classIds The class id of each new row, as given by getClassDictionary(). Ids of labels about to be
+	 * added to the dictionary can be used (They should be added before the new model is used)
+	 * @return The model including the new rows
+	 */
+	public TunaKNNModel withRows(double[][] values, int[] classIds){
+		ColumnStats stats = testSetStats;
+		//The new rows may have classifications this model does not
+		int noClasses = unstandardisedTestSet.getClassDictionary().size();
+		for(int y = 0; y < classIds.length; y++)
+			noClasses = Math.max(noClasses, classIds[y] + 1);
+		int[] classCounts = Arrays.copyOf(noOfEachClass, noClasses);
+
+		for(int y = 0; y < values.length; y++){
+			stats = stats.add(values[y]);
+			if(classIds[y] >= 0)
+				classCounts[classIds[y]]++;
+		}
+
+		TunaKNNModel model = new TunaKNNModel(unstandardisedTestSet.withRows(values, classIds), stats, classCounts);
+		model.setStandardisedBudget(standardisedBudget);
+		return model;
+	}
+
+	public int getNoDimensions(){
+		return noDimensions;
+	}
+
+	public int getTestSetSize(){
+		return testSetSize;
+	}
+
+	/**
+	 * Returns the unstandardised test set. It is not copied, so should not be altered.
+	 * @return The test set the model was trained on
+	 */
+	public FeatureMatrix getTestSet(){
+		return unstandardisedTestSet;
+	}
+
+	public ColumnStats getStats(){
+		return testSetStats;
+	}
+
+	public double getMean(int dimension){
+		return meanValues[dimension];
+	}
+
+	public double getSD(int dimension){
+		return sdValues[dimension];
+	}
+
+	/**
+	 * Returns the standardised test set, indexed [dimension][row]. The columns are not copied, so should not be altered.
+	 * @return The standardised test set
+	 */
+	public double[][] getStandardisedTestSet(){
+		boolean[] dimensions = new boolean[noDimensions];
+		for(int x = 0; x < noDimensions; x++)
+			dimensions[x] = true;
+
+		return getStandardisedTestSet(dimensions);
+	}
+
+	/**
+	 * Returns the standardised test set with only the dimensions given, indexed [dimension][row]. Dimensions
+	 * not included are null. The columns are not copied, so should not be altered.
+	 * @param dimensions A true value indicates this dimension should be included
+	 * @return The standardised test set
+	 */
+	public double[][] getStandardisedTestSet(boolean[] dimensions){
+		double[][] testSet = new double[noDimensions][];
+
+		for(int x = 0; x < noDimensions; x++)
+			if(dimensions[x])
+				testSet[x] = getStandardisedColumn(x);
+
+		return testSet;
+	}
+
+	/**
+	 * Returns the standardised values of a dimension, working them out if they are not kept
+	 * @param dimension The dimension
+	 * @return The standardised values, indexed by row
+	 */
+	public double[] getStandardisedColumn(int dimension){
+		double[] column = standardisedColumns.get(dimension);
+
+		if(column == null)
+			return standardiseColumn(dimension);
+
+		long now = columnsWorkedOut;
+		if(lastUsed.get(dimension) != now)
+			lastUsed.lazySet(dimension, now);
+
+		return column;
+	}
+
+	/**
+	 * Work out the standardised values of a dimension and keep them, unless another thread already has
+	 */
+	private synchronized double[] standardiseColumn(int dimension){
+		double[] column = standardisedColumns.get(dimension);
+
+		if(column == null){
+			//Scale the column of data by the method of standard score (Read in place if it is held in a buffer)
+			column = ArrayListMath.scaleDataByStandardScore(unstandardisedTestSet.getColumnBuffer(dimension), testSetSize, meanValues[dimension], sdValues[dimension]);
+
+			standardisedColumns.set(dimension, column);
+			standardisedBytes += (long) column.length * 8;
+			columnsWorkedOut++;
+		}
+
+		lastUsed.set(dimension, columnsWorkedOut);
+		dropStandardisedColumns(dimension);
+
+		return column;
+	}
+
+	/**
+	 * Set how much memory the standardised columns kept may use. The column in use is always kept.
+	 * @param bytes The memory budget in bytes
+	 */
+	public synchronized void setStandardisedBudget(long bytes){
+		standardisedBudget = bytes;
+		dropStandardisedColumns(-1);
+	}
+
+	/**
+	 * Drop the least recently used standardised columns until the rest fit in the budget. Threads already
+	 * holding a column dropped can carry on using it.
+	 * @param keep The dimension of a column that must not be dropped (-1 if none)
+	 */
+	private void dropStandardisedColumns(int keep){
+		while(standardisedBytes > standardisedBudget){
+			//The column kept that was used longest ago
+			int oldest = -1;
+			for(int x = 0; x < noDimensions; x++)
+				if(x != keep && standardisedColumns.get(x) != null && (oldest == -1 || lastUsed.get(x) < lastUsed.get(oldest)))
+					oldest = x;
+
+			if(oldest == -1)
+				break;
+
+			standardisedBytes -= (long) standardisedColumns.get(oldest).length * 8;
+			standardisedColumns.set(oldest, null);
+		}
+	}
+
+	/**
+	 * Returns the labels of the class ids the test set is held with
+	 * @return The class dictionary of the test set
+	 */
+	public ClassDictionary getClassDictionary(){
+		return unstandardisedTestSet.getClassDictionary();
+	}
+
+	/**
+	 * Returns the number of points in the test set with each classification, indexed by class id
+	 * @return A copy of the frequency of each classification
+	 */
+	public int[] getClassCounts(){
+		return noOfEachClass.clone();
+	}
+
+	/**
+	 * Returns the standard score of a value of the given dimension
+	 * @param dimension The dimension the value is from
+	 * @param value The unstandardised value
+	 * @return The standardised value
+	 */
+	public double standardise(int dimension, double value){
+		return (value - meanValues[dimension]) / sdValues[dimension];
+	}
+}
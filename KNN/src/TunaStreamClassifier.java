@@ -0,0 +1,234 @@
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Ben
+ * Classifies rows of 12 hour periods read from a stream (In the data file format, classification not needed)
+ * and writes each row back out with its classification, in the order read. Rows are classified in batches
+ * by a pool of workers. Only a fixed number of batches are held at once: reading waits for the oldest batch
+ * to be written, so memory use does not grow with the input. Each batch is flushed once written, and when the
+ * input goes quiet the rows read so far are classified and written straight away rather than waiting for a
+ * full batch.
+ */
+public class TunaStreamClassifier {
+
+	//Number of rows classified together by one worker
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	//Number of batches held (Being classified or waiting to be written) per worker thread
+	private static final int BATCHES_PER_THREAD = 2;
+
+	private TunaKNNClassifier knn;
+	private boolean[] dimensions;
+	private int i;
+	private int method;
+
+	//Workers the batches are classified on. null to classify on the calling thread
+	private ExecutorService executor;
+
+	private int batchSize;
+	private int maxBatches;
+
+	/**
+	 * @param knn The classifier to use
+	 * @param dimensions A true value indicates this dimension should be included
+	 * @param i The i to use (KNN-i)
+	 * @param method 1-Normal KNN,  2-Weighted KNN,  3-Weighted(Squared) KNN, 4-Bayes Naive Classifier
+	 * @param executor The workers to classify batches on. null to classify on the calling thread
+	 * @param threads The number of threads the executor has (Sets how many batches are held at once)
+	 */
+	public TunaStreamClassifier(TunaKNNClassifier knn, boolean[] dimensions, int i, int method, ExecutorService executor, int threads){
+		this.knn = knn;
+		this.dimensions = dimensions.clone();
+		this.i = i;
+		this.method = method;
+		this.executor = executor;
+
+		batchSize = DEFAULT_BATCH_SIZE;
+		maxBatches = executor == null ? 1 : Math.max(1, threads) * BATCHES_PER_THREAD;
+	}
+
+	/**
+	 * Set how many rows are classified together. Smaller batches are written out sooner.
+	 * @param batchSize The number of rows in each batch
+	 */
+	public void setBatchSize(int batchSize){
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Classify every row in the stream, writing each row with its classification to the writer
+	 * @param in The rows to classify
+	 * @param header true if the first line of the stream is column titles
+	 * @param out Where the classified rows are written (Column titles first)
+	 * @return The number of rows classified
+	 * @throws IOException If the stream cannot be read or the writer cannot be written to
+	 */
+	public long classify(InputStream in, boolean header, Writer out) throws IOException {
+		int noDimensions = dimensions.length;
+		TunaDataParser parser = new TunaDataParser(in, noDimensions);
+
+		if(header)
+			parser.skipLine();
+
+		//Column titles, so the output can be read back in as a data file
+		for(int x = 0; x < noDimensions; x++)
+			out.write(FeatureMatrix.dimensionName(x).replace(" ", "") + " ");
+		out.write("Class\n");
+
+		//Batches in the order they were read, oldest first
+		ArrayDeque<Batch> batches = new ArrayDeque<Batch>();
+		long rows = 0;
+
+		boolean more = true;
+		while(more){
+			//Read in the next batch, ending it early if no more input is waiting
+			double[][] values = new double[batchSize][noDimensions];
+			int size = 0;
+			boolean idle = false;
+			while(size < batchSize){
+				if(size > 0 && !parser.isReady()){
+					idle = true;
+					break;
+				}
+				if(!(more = parser.readRow(values[size])))
+					break;
+				size++;
+			}
+
+			if(size == 0)
+				break;
+
+			if(size < batchSize){
+				double[][] trimmed = new double[size][];
+				System.arraycopy(values, 0, trimmed, 0, size);
+				values = trimmed;
+			}
+
+			//Wait for the oldest batch to be written if too many are held (Reading waits for writing)
+			if(batches.size() >= maxBatches)
+				batches.poll().write(out);
+
+			batches.add(new Batch(values));
+			rows += size;
+
+			if(idle)
+				//Reading would have to wait, so write out every row read so far in the meantime
+				while(!batches.isEmpty())
+					batches.poll().write(out);
+			else
+				//Keep the output moving when rows arrive slowly
+				while(!batches.isEmpty() && batches.peek().isDone())
+					batches.poll().write(out);
+		}
+
+		while(!batches.isEmpty())
+			batches.poll().write(out);
+
+		out.flush();
+		return rows;
+	}
+
+	/**
+	 * @author Ben
+	 * A batch of rows, classified on the executor (or straight away without one)
+	 */
+	private class Batch implements Callable<String[]>{
+		private double[][] values;
+		private Future<String[]> result;
+		private String[] classifications;
+
+		Batch(double[][] values){
+			this.values = values;
+
+			if(executor == null)
+				classifications = call();
+			else
+				result = executor.submit(this);
+		}
+
+		@Override
+		public String[] call(){
+			return knn.classify(dimensions, values, i, method, null);
+		}
+
+		boolean isDone(){
+			return result == null || result.isDone();
+		}
+
+		/**
+		 * Write each row of the batch with its classification, waiting for the classification to finish,
+		 * then flush the writer so the rows are passed on straight away
+		 */
+		void write(Writer out) throws IOException {
+			try {
+				if(result != null)
+					classifications = result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Stream classification interrupted", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Stream classification failed", e.getCause());
+			}
+
+			//classify returns null for an invalid i or method
+			if(classifications == null)
+				throw new IllegalArgumentException("Invalid i or method");
+
+			StringBuilder line = new StringBuilder();
+			for(int y = 0; y < values.length; y++){
+				line.setLength(0);
+				for(int x = 0; x < values[y].length; x++)
+					line.append(values[y][x]).append(' ');
+				line.append(classifications[y]).append('\n');
+				out.write(line.toString());
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Classifies a data file (or standard input) and writes the classified rows to standard output.
+	 * Arguments: training file, input file (- for standard input), i, method, then optionally the
+	 * dimensions to include (e.g. 11110000, default all) and the number of worker threads.
+	 * The input is expected to start with column titles, as data.txt does.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 4){
+			System.err.println("Usage: TunaStreamClassifier <training file> <input file|-> <i> <method> [dimensions] [threads]");
+			return;
+		}
+
+		TunaKNNModel model = args[0].endsWith(".bin") ? TunaBinaryFile.readModel(args[0]) : new TunaKNNModel(args[0]);
+		TunaKNNClassifier knn = new TunaKNNClassifier(model);
+
+		boolean[] dimensions = new boolean[model.getNoDimensions()];
+		for(int x = 0; x < dimensions.length; x++)
+			dimensions[x] = args.length < 5 || (x < args[4].length() && args[4].charAt(x) == '1');
+
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		InputStream in = args[1].equals("-") ? System.in : new FileInputStream(args[1]);
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "US-ASCII"), 1 << 16);
+
+		try {
+			TunaStreamClassifier stream = new TunaStreamClassifier(knn, dimensions, Integer.parseInt(args[2]), Integer.parseInt(args[3]), executor, threads);
+			stream.classify(in, true, out);
+		} finally {
+			executor.shutdown();
+			in.close();
+			out.flush();
+		}
+	}
+}